@@ -0,0 +1,8 @@
+package com.mi.im.common.constant;
+
+public class RedisKeyConstants {
+    // 用户黑名单集合: blacklist:{userId} -> 被拉黑的用户ID
+    public static final String BLACKLIST_KEY_PREFIX = "blacklist:";
+    // 黑名单变更通知频道，消息内容为黑名单所属的用户ID
+    public static final String BLACKLIST_CHANGED_CHANNEL = "blacklist:changed";
+}
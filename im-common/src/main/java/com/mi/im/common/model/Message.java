@@ -51,4 +51,10 @@ public class Message implements Serializable {
     private Boolean isOffline;
 
     private Boolean isBlocked;
+
+    // 设备ID（身份验证消息携带，用于区分同一用户的多个设备）
+    private String deviceId;
+
+    // 设备类型: phone, pad, pc, web
+    private String deviceType;
 }
\ No newline at end of file
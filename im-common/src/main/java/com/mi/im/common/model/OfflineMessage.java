@@ -0,0 +1,23 @@
+package com.mi.im.common.model;
+
+import lombok.Data;
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * 离线消息记录：从接收者的Redis离线收件箱中淘汰的消息，每个接收者一行
+ * 消息内容在消息表中（群消息只存一行，接收者为群ID），客户端通过该记录分页拉取
+ */
+@Data
+public class OfflineMessage implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // 接收者ID
+    private String receiverId;
+
+    // 消息ID
+    private String messageId;
+
+    // 发送时间
+    private Date sendTime;
+}
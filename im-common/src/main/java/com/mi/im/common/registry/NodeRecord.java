@@ -0,0 +1,32 @@
+package com.mi.im.common.registry;
+
+import lombok.Data;
+
+/**
+ * Netty节点注册记录，由Netty节点写入Zookeeper注册节点，网关读取后选择节点
+ * 编解码见 {@link NodeRecordCodec}
+ */
+@Data
+public class NodeRecord {
+
+    // 节点地址 ip:port
+    private String address;
+
+    // 当前连接数
+    private long connections;
+
+    // 事件循环延迟（微秒），取上个发布周期内各worker线程的最大值
+    private long eventLoopLagMicros;
+
+    // 进程CPU使用率（千分比）
+    private int cpuPermille;
+
+    // 所有连接待写出的字节数
+    private long pendingOutboundBytes;
+
+    // 容量权重，机器配置越高权重越大
+    private int weight;
+
+    // 发布时间（毫秒）
+    private long timestamp;
+}
@@ -0,0 +1,95 @@
+package com.mi.im.common.registry;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 节点注册记录的紧凑二进制编解码
+ * 格式：版本号(1字节) + 地址(varint长度+UTF-8) + 各数值字段(varint)。
+ * 新版本只在末尾追加字段，旧版本读取方忽略多出的字节
+ */
+public final class NodeRecordCodec {
+
+    public static final int VERSION = 1;
+
+    private NodeRecordCodec() {
+    }
+
+    public static byte[] encode(NodeRecord record) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(48);
+        out.write(VERSION);
+        byte[] address = record.getAddress() == null
+                ? new byte[0] : record.getAddress().getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, address.length);
+        out.write(address, 0, address.length);
+        writeVarLong(out, record.getConnections());
+        writeVarLong(out, record.getEventLoopLagMicros());
+        writeVarLong(out, record.getCpuPermille());
+        writeVarLong(out, record.getPendingOutboundBytes());
+        writeVarLong(out, record.getWeight());
+        writeVarLong(out, record.getTimestamp());
+        return out.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException 数据为空、版本不支持或格式错误
+     */
+    public static NodeRecord decode(byte[] data) {
+        if (data == null || data.length == 0) {
+            throw new IllegalArgumentException("节点记录为空");
+        }
+        Reader reader = new Reader(data);
+        int version = reader.data[reader.index++] & 0xFF;
+        if (version < 1) {
+            throw new IllegalArgumentException("不支持的节点记录版本: " + version);
+        }
+        NodeRecord record = new NodeRecord();
+        int addressLength = (int) reader.readVarLong();
+        if (addressLength < 0 || addressLength > data.length - reader.index) {
+            throw new IllegalArgumentException("节点记录地址长度错误");
+        }
+        record.setAddress(new String(data, reader.index, addressLength, StandardCharsets.UTF_8));
+        reader.index += addressLength;
+        record.setConnections(reader.readVarLong());
+        record.setEventLoopLagMicros(reader.readVarLong());
+        record.setCpuPermille((int) reader.readVarLong());
+        record.setPendingOutboundBytes(reader.readVarLong());
+        record.setWeight((int) reader.readVarLong());
+        record.setTimestamp(reader.readVarLong());
+        return record;
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        // 负数（异常的计数）按0写出
+        long v = Math.max(0, value);
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private int index;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        long readVarLong() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (index >= data.length) {
+                    throw new IllegalArgumentException("节点记录被截断");
+                }
+                byte b = data[index++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IllegalArgumentException("节点记录varint过长");
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.mi.im.common.ticket;
+
+import lombok.Data;
+
+/**
+ * 连接票据，由网关在分配节点时签发，客户端握手时交给Netty节点校验
+ * 编解码见 {@link ConnectTicketCodec}
+ */
+@Data
+public class ConnectTicket {
+
+    // 用户ID
+    private String userId;
+
+    // 设备ID，可为空
+    private String deviceId;
+
+    // 分配的节点地址 ip:port
+    private String node;
+
+    // 过期时间（毫秒）
+    private long expireAt;
+
+    // 签名密钥ID，用于密钥轮换
+    private String keyId;
+}
@@ -0,0 +1,93 @@
+package com.mi.im.common.ticket;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.function.Function;
+
+/**
+ * 连接票据的签名与校验
+ * 格式：base64url(票据JSON) + "." + base64url(HMAC-SHA256签名)，可直接放在URL参数中
+ */
+public final class ConnectTicketCodec {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private ConnectTicketCodec() {
+    }
+
+    /**
+     * 用指定密钥签发票据
+     */
+    public static String sign(ConnectTicket ticket, byte[] secret) {
+        String payload = ENCODER.encodeToString(JSON.toJSONBytes(ticket));
+        return payload + "." + ENCODER.encodeToString(hmac(secret, payload));
+    }
+
+    /**
+     * 校验票据签名和有效期
+     * @param keys 按密钥ID查找密钥，未知的密钥ID返回null
+     * @param now 当前时间（毫秒）
+     * @throws IllegalArgumentException 格式错误、密钥未知、签名不符或已过期
+     */
+    public static ConnectTicket verify(String token, Function<String, byte[]> keys, long now) {
+        if (token == null) {
+            throw new IllegalArgumentException("票据为空");
+        }
+        int dot = token.indexOf('.');
+        if (dot <= 0 || dot == token.length() - 1) {
+            throw new IllegalArgumentException("票据格式错误");
+        }
+        String payload = token.substring(0, dot);
+        ConnectTicket ticket;
+        byte[] signature;
+        try {
+            ticket = JSON.parseObject(DECODER.decode(payload), ConnectTicket.class);
+            signature = DECODER.decode(token.substring(dot + 1));
+        } catch (IllegalArgumentException | JSONException e) {
+            throw new IllegalArgumentException("票据格式错误", e);
+        }
+        if (ticket == null || ticket.getUserId() == null) {
+            throw new IllegalArgumentException("票据缺少用户ID");
+        }
+        byte[] secret = keys.apply(ticket.getKeyId());
+        if (secret == null) {
+            throw new IllegalArgumentException("未知的票据密钥: " + ticket.getKeyId());
+        }
+        // 常量时间比较，避免按耗时逐字节猜测签名
+        if (!MessageDigest.isEqual(signature, hmac(secret, payload))) {
+            throw new IllegalArgumentException("票据签名错误");
+        }
+        if (ticket.getExpireAt() < now) {
+            throw new IllegalArgumentException("票据已过期");
+        }
+        return ticket;
+    }
+
+    // Mac实例非线程安全，按线程复用，省去每次查找算法提供者的开销
+    private static final ThreadLocal<Mac> MAC = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance(ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("不支持的签名算法: " + ALGORITHM, e);
+        }
+    });
+
+    private static byte[] hmac(byte[] secret, String payload) {
+        try {
+            Mac mac = MAC.get();
+            mac.init(new SecretKeySpec(secret, ALGORITHM));
+            return mac.doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("票据签名失败", e);
+        }
+    }
+}
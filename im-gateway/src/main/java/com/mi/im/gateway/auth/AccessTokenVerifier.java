@@ -0,0 +1,46 @@
+package com.mi.im.gateway.auth;
+
+import com.mi.im.common.ticket.ConnectTicket;
+import com.mi.im.common.ticket.ConnectTicketCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 登录令牌校验
+ * 令牌由用户服务的登录接口（POST /api/user/login）签发，
+ * 格式与连接票据相同（{@link ConnectTicketCodec}，node为空），
+ * 但使用独立的密钥 im.auth.secret，连接票据不能当作登录令牌使用
+ */
+@Component
+public class AccessTokenVerifier {
+
+    // 当前签名密钥ID
+    @Value("${im.auth.key-id:a1}")
+    private String keyId;
+
+    // 签名密钥，与用户服务配置一致
+    @Value("${im.auth.secret:}")
+    private String secret;
+
+    private byte[] secretBytes;
+
+    @PostConstruct
+    public void init() {
+        if (secret.isEmpty()) {
+            throw new IllegalStateException("未配置登录令牌密钥 im.auth.secret");
+        }
+        secretBytes = secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 校验令牌签名和有效期
+     * @throws IllegalArgumentException 令牌无效
+     */
+    public ConnectTicket verify(String token) {
+        return ConnectTicketCodec.verify(token, id -> keyId.equals(id) ? secretBytes : null,
+                System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,75 @@
+package com.mi.im.gateway.auth;
+
+import com.mi.im.common.ticket.ConnectTicket;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.ReactiveAuthenticationManager;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
+import org.springframework.security.config.web.server.SecurityWebFiltersOrder;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.authentication.AuthenticationWebFilter;
+import org.springframework.security.web.server.context.NoOpServerSecurityContextRepository;
+import reactor.core.publisher.Mono;
+
+import java.util.Collections;
+
+/**
+ * 网关认证配置
+ * 请求头 Authorization: Bearer 登录令牌，认证后的用户ID作为Principal名称；
+ * 连接调度接口必须认证，签发的连接票据只能是调用者本人的；
+ * 消息接口必须认证，用户ID由 {@link UserIdHeaderFilter} 传给消息服务
+ */
+@Configuration
+@EnableWebFluxSecurity
+public class SecurityConfig {
+
+    private static final String BEARER = "Bearer ";
+
+    @Bean
+    public SecurityWebFilterChain securityWebFilterChain(ServerHttpSecurity http, AccessTokenVerifier verifier) {
+        AuthenticationWebFilter bearerFilter = new AuthenticationWebFilter(authenticationManager(verifier));
+        bearerFilter.setServerAuthenticationConverter(exchange -> {
+            String header = exchange.getRequest().getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+            if (header == null || !header.startsWith(BEARER)) {
+                return Mono.empty();
+            }
+            String token = header.substring(BEARER.length()).trim();
+            return Mono.just(new UsernamePasswordAuthenticationToken(token, token));
+        });
+        // 每个请求都带令牌，不保存会话
+        bearerFilter.setSecurityContextRepository(NoOpServerSecurityContextRepository.getInstance());
+
+        return http
+                .csrf().disable()
+                .httpBasic().disable()
+                .formLogin().disable()
+                .logout().disable()
+                .securityContextRepository(NoOpServerSecurityContextRepository.getInstance())
+                .addFilterAt(bearerFilter, SecurityWebFiltersOrder.AUTHENTICATION)
+                .authorizeExchange()
+                .pathMatchers("/api/dispatch/**", "/api/message/**").authenticated()
+                .anyExchange().permitAll()
+                .and()
+                .build();
+    }
+
+    private ReactiveAuthenticationManager authenticationManager(AccessTokenVerifier verifier) {
+        return authentication -> {
+            String token = (String) authentication.getCredentials();
+            ConnectTicket claims;
+            try {
+                claims = verifier.verify(token);
+            } catch (IllegalArgumentException e) {
+                return Mono.error(new BadCredentialsException(e.getMessage()));
+            }
+            UsernamePasswordAuthenticationToken result = new UsernamePasswordAuthenticationToken(
+                    claims.getUserId(), token, Collections.emptyList());
+            result.setDetails(claims);
+            return Mono.just(result);
+        };
+    }
+}
@@ -0,0 +1,44 @@
+package com.mi.im.gateway.auth;
+
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.core.Ordered;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+/**
+ * 向下游服务传递已认证的用户ID
+ * 先移除客户端自带的同名请求头，已认证时再按登录令牌中的用户ID设置，下游服务只信任该请求头
+ */
+@Component
+public class UserIdHeaderFilter implements GlobalFilter, Ordered {
+
+    public static final String USER_ID_HEADER = "X-User-Id";
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        return exchange.getPrincipal()
+                .map(principal -> withUserId(exchange, principal.getName()))
+                .defaultIfEmpty(withUserId(exchange, null))
+                .flatMap(chain::filter);
+    }
+
+    private ServerWebExchange withUserId(ServerWebExchange exchange, String userId) {
+        ServerHttpRequest request = exchange.getRequest().mutate()
+                .headers(headers -> {
+                    headers.remove(USER_ID_HEADER);
+                    if (userId != null) {
+                        headers.set(USER_ID_HEADER, userId);
+                    }
+                })
+                .build();
+        return exchange.mutate().request(request).build();
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE;
+    }
+}
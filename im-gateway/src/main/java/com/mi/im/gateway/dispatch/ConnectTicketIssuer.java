@@ -0,0 +1,55 @@
+package com.mi.im.gateway.dispatch;
+
+import com.mi.im.common.ticket.ConnectTicket;
+import com.mi.im.common.ticket.ConnectTicketCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 连接票据签发，用当前密钥签名，Netty节点用同一组密钥校验
+ */
+@Component
+public class ConnectTicketIssuer {
+
+    // 当前签名密钥ID
+    @Value("${im.ticket.key-id:k1}")
+    private String keyId;
+
+    // 当前签名密钥，与Netty节点配置一致
+    @Value("${im.ticket.secret:}")
+    private String secret;
+
+    // 票据有效期（毫秒），只需覆盖客户端拿到地址到完成握手的时间
+    @Value("${gateway.dispatch.ticket-ttl:30000}")
+    private long ticketTtl;
+
+    private byte[] secretBytes;
+
+    @PostConstruct
+    public void init() {
+        if (secret.isEmpty()) {
+            throw new IllegalStateException("未配置连接票据密钥 im.ticket.secret");
+        }
+        secretBytes = secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 为用户签发连接到指定节点的票据
+     */
+    public ConnectTicket issue(String userId, String deviceId, String node) {
+        ConnectTicket ticket = new ConnectTicket();
+        ticket.setUserId(userId);
+        ticket.setDeviceId(deviceId);
+        ticket.setNode(node);
+        ticket.setExpireAt(System.currentTimeMillis() + ticketTtl);
+        ticket.setKeyId(keyId);
+        return ticket;
+    }
+
+    public String sign(ConnectTicket ticket) {
+        return ConnectTicketCodec.sign(ticket, secretBytes);
+    }
+}
@@ -0,0 +1,62 @@
+package com.mi.im.gateway.dispatch;
+
+import com.mi.im.common.ticket.ConnectTicket;
+import com.mi.im.gateway.loadbalance.NettyLoadBalance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 连接调度接口
+ * 客户端先向网关查询分配的Netty节点和连接票据，再直接连接该节点的WebSocket，
+ * 长连接不再经过网关转发
+ */
+@RestController
+@RequestMapping("/api/dispatch")
+public class DispatchController {
+
+    @Autowired
+    private NettyLoadBalance nettyLoadBalance;
+
+    @Autowired
+    private ConnectTicketIssuer ticketIssuer;
+
+    // Netty节点的WebSocket路径，与Netty节点的配置一致
+    @Value("${gateway.dispatch.websocket-path:/ws}")
+    private String webSocketPath;
+
+    /**
+     * 为已登录的用户分配Netty节点并签发连接票据
+     * 用户ID取自登录令牌（见 SecurityConfig），不接受请求参数指定
+     */
+    @GetMapping("/node")
+    public ResponseEntity<Map<String, Object>> dispatch(
+            Principal principal,
+            @RequestParam(value = "deviceId", required = false) String deviceId) {
+        String userId = principal.getName();
+        String node = nettyLoadBalance.getBestNode(userId);
+        if (node == null) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("message", "没有可用的Netty节点");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(error);
+        }
+        ConnectTicket ticket = ticketIssuer.issue(userId, deviceId, node);
+        String token = ticketIssuer.sign(ticket);
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("node", node);
+        result.put("url", "ws://" + node + webSocketPath + "?ticket=" + token);
+        result.put("ticket", token);
+        result.put("expireAt", ticket.getExpireAt());
+        return ResponseEntity.ok(result);
+    }
+}
@@ -0,0 +1,174 @@
+package com.mi.im.gateway.loadbalance;
+
+import com.mi.im.common.registry.NodeRecord;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 有界负载的一致性哈希策略，按用户ID选择节点
+ * 同一用户重连时落在同一节点，保留该节点上的会话缓存和路由；节点加入或退出时只有约1/n的用户迁移。
+ * 每个节点的负载上限为 平均负载(按权重) * loadFactor，沿哈希环顺时针跳过已达上限的节点，
+ * 避免热点节点被打满；没有选择依据时交给备用策略
+ */
+public class ConsistentHashStrategy implements NodeSelectStrategy {
+
+    private final InFlightTracker tracker;
+    private final NodeSelectStrategy fallback;
+    private final int virtualNodes;
+    private final double loadFactor;
+
+    private volatile Ring ring = Ring.EMPTY;
+
+    /**
+     * @param virtualNodes 权重为100的节点在环上的虚拟节点数，其他节点按权重折算
+     * @param loadFactor 单节点负载上限相对平均负载的倍数，大于1
+     */
+    public ConsistentHashStrategy(InFlightTracker tracker, NodeSelectStrategy fallback,
+                                  int virtualNodes, double loadFactor) {
+        this.tracker = tracker;
+        this.fallback = fallback;
+        this.virtualNodes = virtualNodes;
+        this.loadFactor = loadFactor;
+    }
+
+    @Override
+    public NodeRecord select(NodeView view, String key) {
+        if (key == null || view.isEmpty()) {
+            return fallback.select(view, key);
+        }
+        Ring ring = ringFor(view);
+
+        // 按权重计算各节点的负载上限
+        long totalLoad = view.totalConnections() + tracker.totalInFlight() + 1;
+        double capacityPerWeight = loadFactor * totalLoad / view.totalWeight();
+
+        int start = ring.indexOf(hash(key));
+        NodeRecord first = null;
+        for (int i = 0; i < ring.size(); i++) {
+            NodeRecord node = view.get(ring.addressAt(start + i));
+            if (node == null) {
+                continue;
+            }
+            if (first == null) {
+                first = node;
+            }
+            if (load(node) + 1 <= Math.ceil(capacityPerWeight * weight(node))) {
+                return node;
+            }
+        }
+        return first;
+    }
+
+    private long load(NodeRecord node) {
+        return node.getConnections() + tracker.inFlight(node.getAddress());
+    }
+
+    private static int weight(NodeRecord node) {
+        return NodeView.weightOf(node);
+    }
+
+    // 节点集合或权重变化时才重建哈希环，连接数的定期发布只更换快照引用
+    private Ring ringFor(NodeView view) {
+        Ring current = ring;
+        if (current.source == view) {
+            return current;
+        }
+        String signature = Ring.signature(view);
+        Ring updated = current.signature.equals(signature)
+                ? current.withSource(view)
+                : Ring.build(view, virtualNodes, signature);
+        ring = updated;
+        return updated;
+    }
+
+    // FNV-1a 64位哈希再做MurmurHash3 fmix64混淆，使相近的用户ID在环上均匀分布
+    static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        for (byte b : bytes) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * 不可变的哈希环：虚拟节点哈希升序数组 + 对应的节点地址，查找为二分O(log n)
+     */
+    private static final class Ring {
+        static final Ring EMPTY = new Ring(new long[0], new String[0], "", null);
+
+        private final long[] hashes;
+        private final String[] owners;
+        private final String signature;
+        // 最近一次校验过的节点快照
+        private final NodeView source;
+
+        private Ring(long[] hashes, String[] owners, String signature, NodeView source) {
+            this.hashes = hashes;
+            this.owners = owners;
+            this.signature = signature;
+            this.source = source;
+        }
+
+        Ring withSource(NodeView view) {
+            return new Ring(hashes, owners, signature, view);
+        }
+
+        static Ring build(NodeView view, int virtualNodes, String signature) {
+            List<long[]> points = new ArrayList<>();
+            List<String> owners = new ArrayList<>();
+            for (int i = 0; i < view.size(); i++) {
+                NodeRecord node = view.get(i);
+                int replicas = Math.max(1, (int) ((long) virtualNodes * weight(node) / 100));
+                for (int r = 0; r < replicas; r++) {
+                    points.add(new long[]{hash(node.getAddress() + "#" + r), owners.size()});
+                    owners.add(node.getAddress());
+                }
+            }
+            points.sort(Comparator.comparingLong(point -> point[0]));
+            long[] hashes = new long[points.size()];
+            String[] ringOwners = new String[points.size()];
+            for (int i = 0; i < points.size(); i++) {
+                hashes[i] = points.get(i)[0];
+                ringOwners[i] = owners.get((int) points.get(i)[1]);
+            }
+            return new Ring(hashes, ringOwners, signature, view);
+        }
+
+        static String signature(NodeView view) {
+            String[] parts = new String[view.size()];
+            for (int i = 0; i < view.size(); i++) {
+                parts[i] = view.get(i).getAddress() + "=" + weight(view.get(i));
+            }
+            Arrays.sort(parts);
+            return String.join(",", parts);
+        }
+
+        int size() {
+            return hashes.length;
+        }
+
+        // 第一个哈希值不小于key的虚拟节点下标（环形）
+        int indexOf(long key) {
+            int index = Arrays.binarySearch(hashes, key);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return index == hashes.length ? 0 : index;
+        }
+
+        String addressAt(int index) {
+            return owners[index % owners.length];
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.mi.im.gateway.loadbalance;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 网关侧的节点分配记录
+ * 记录两次节点发布之间本网关分配到各节点的连接数（节点发布新记录后清零），
+ * 以及节点的注册时间（用于新节点的慢启动）
+ */
+public class InFlightTracker {
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong total = new AtomicLong();
+
+    /**
+     * 节点发布了新记录，之前分配的连接已计入其连接数
+     */
+    public void onPublished(String address, long registeredAt) {
+        Entry entry = entries.computeIfAbsent(address, key -> new Entry(registeredAt));
+        entry.registeredAt = registeredAt;
+        total.addAndGet(-entry.inFlight.getAndSet(0));
+    }
+
+    public void remove(String address) {
+        Entry entry = entries.remove(address);
+        if (entry != null) {
+            total.addAndGet(-entry.inFlight.getAndSet(0));
+        }
+    }
+
+    /**
+     * 记录一次分配
+     */
+    public void assigned(String address) {
+        Entry entry = entries.get(address);
+        if (entry != null) {
+            entry.inFlight.incrementAndGet();
+            total.incrementAndGet();
+        }
+    }
+
+    /**
+     * 所有节点的分配计数之和
+     */
+    public long totalInFlight() {
+        return Math.max(0, total.get());
+    }
+
+    /**
+     * 上次发布以来分配到该节点的连接数
+     */
+    public long inFlight(String address) {
+        Entry entry = entries.get(address);
+        return entry == null ? 0 : entry.inFlight.get();
+    }
+
+    /**
+     * 节点注册时间（毫秒），未知时返回0
+     */
+    public long registeredAt(String address) {
+        Entry entry = entries.get(address);
+        return entry == null ? 0 : entry.registeredAt;
+    }
+
+    private static class Entry {
+        private final AtomicLong inFlight = new AtomicLong();
+        private volatile long registeredAt;
+
+        Entry(long registeredAt) {
+            this.registeredAt = registeredAt;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.mi.im.gateway.loadbalance;
+
+import com.mi.im.common.registry.NodeRecord;
+
+/**
+ * 最少连接策略：选择上次发布的连接数最少的节点
+ * 连接数只在节点发布时刷新，突发登录时所有客户端会涌向同一个节点
+ */
+public class LeastConnectionsStrategy implements NodeSelectStrategy {
+
+    @Override
+    public NodeRecord select(NodeView view, String key) {
+        return view.leastLoaded();
+    }
+}
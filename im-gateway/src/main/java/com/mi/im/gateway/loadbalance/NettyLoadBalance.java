@@ -1,99 +1,169 @@
 package com.mi.im.gateway.loadbalance;
 
+import com.mi.im.common.registry.NodeRecord;
+import com.mi.im.common.registry.NodeRecordCodec;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.CuratorCache;
+import org.apache.curator.framework.recipes.cache.CuratorCacheListener;
 import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
-import reactor.core.publisher.Mono;
 
-import java.util.ArrayList;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 /**
  * Netty服务负载均衡器
+ * 通过Curator缓存监听节点注册路径，在内存中维护按连接数排序的节点快照；
+ * 选择节点只读取当前快照，不访问Zookeeper，也不加锁。
+ * 选择策略可配置：least-connections（最少连接）、p2c（加权二选一，默认）、
+ * consistent-hash（按用户ID的有界负载一致性哈希，重连时保持在同一节点）
  */
 @Component
 public class NettyLoadBalance {
+    private static final Logger logger = LoggerFactory.getLogger(NettyLoadBalance.class);
 
     @Value("${zookeeper.address:localhost:2181}")
     private String zookeeperAddress;
-    
-    @Value("${zookeeper.base-path:/im-netty}")
-    private String zookeeperBasePath;
+
+    // Netty节点注册路径，与Netty节点的配置一致
+    @Value("${netty.server.path:/im/netty/servers}")
+    private String serverPath;
+
+    // 节点选择策略: least-connections / p2c / consistent-hash
+    @Value("${gateway.loadbalance.strategy:p2c}")
+    private String strategyName;
+
+    // 一致性哈希中权重为100的节点的虚拟节点数
+    @Value("${gateway.loadbalance.virtual-nodes:160}")
+    private int virtualNodes;
+
+    // 一致性哈希中单节点负载上限相对平均负载的倍数
+    @Value("${gateway.loadbalance.load-factor:1.25}")
+    private double loadFactor;
+
+    // 新节点慢启动时长（毫秒）
+    @Value("${gateway.loadbalance.slow-start:60000}")
+    private long slowStart;
+
+    // 慢启动开始时的权重系数
+    @Value("${gateway.loadbalance.slow-start-min-factor:0.1}")
+    private double slowStartMinFactor;
 
     private CuratorFramework curatorFramework;
-    private Map<String, Integer> nodeOnlineCountMap = new ConcurrentHashMap<>();
+    private CuratorCache nodeCache;
+    private NodeSelectStrategy strategy;
+    private final InFlightTracker inFlightTracker = new InFlightTracker();
 
+    // 节点路径 -> 注册记录，只在节点事件回调中修改（回调之间互斥，读取方不加锁）
+    private final Map<String, NodeRecord> records = new HashMap<>();
+    private volatile NodeView view = NodeView.EMPTY;
+
+    @PostConstruct
     public void init() {
+        strategy = createStrategy(strategyName);
+        logger.info("Netty节点选择策略: {}", strategyName);
+
         ExponentialBackoffRetry retryPolicy = new ExponentialBackoffRetry(1000, 3);
         curatorFramework = CuratorFrameworkFactory.newClient(zookeeperAddress, retryPolicy);
         curatorFramework.start();
+
+        nodeCache = CuratorCache.build(curatorFramework, serverPath);
+        nodeCache.listenable().addListener(CuratorCacheListener.builder()
+                .forCreatesAndChanges((oldNode, node) -> onNodeChanged(node))
+                .forDeletes(this::onNodeDeleted)
+                .build());
+        nodeCache.start();
+    }
+
+    private NodeSelectStrategy createStrategy(String name) {
+        switch (name) {
+            case "least-connections":
+                return new LeastConnectionsStrategy();
+            case "p2c":
+                return new PowerOfTwoChoicesStrategy(inFlightTracker, slowStart, slowStartMinFactor);
+            case "consistent-hash":
+                // 同一用户固定落在同一节点；无用户ID时按二选一选择
+                return new ConsistentHashStrategy(inFlightTracker,
+                        new PowerOfTwoChoicesStrategy(inFlightTracker, slowStart, slowStartMinFactor),
+                        virtualNodes, loadFactor);
+            default:
+                throw new IllegalArgumentException("未知的节点选择策略: " + name);
+        }
+    }
+
+    private synchronized void onNodeChanged(ChildData node) {
+        if (serverPath.equals(node.getPath())) {
+            return;
+        }
+        try {
+            NodeRecord record = NodeRecordCodec.decode(node.getData());
+            records.put(node.getPath(), record);
+            // 新记录已包含之前分配的连接，清零本网关的分配计数
+            inFlightTracker.onPublished(record.getAddress(), node.getStat().getCtime());
+        } catch (IllegalArgumentException e) {
+            logger.warn("无法解析节点注册记录: {}", node.getPath());
+            records.remove(node.getPath());
+        }
+        view = NodeView.of(records.values());
+    }
+
+    private synchronized void onNodeDeleted(ChildData node) {
+        NodeRecord removed = records.remove(node.getPath());
+        if (removed != null) {
+            inFlightTracker.remove(removed.getAddress());
+            view = NodeView.of(records.values());
+        }
     }
 
     /**
-     * 获取在线人数最少的Netty节点
+     * 按配置的策略选择Netty节点地址，没有可用节点时返回null
      */
     public String getBestNode() {
-        try {
-            // 获取所有Netty节点
-            List<String> nodes = curatorFramework.getChildren().forPath(zookeeperBasePath);
-            if (nodes == null || nodes.isEmpty()) {
-                return null;
-            }
-
-            // 找出在线人数最少的节点
-            String bestNode = null;
-            int minCount = Integer.MAX_VALUE;
-
-            for (String node : nodes) {
-                byte[] data = curatorFramework.getData().forPath(zookeeperBasePath + "/" + node);
-                String nodeData = new String(data);
-                
-                // 解析在线人数
-                int onlineCount = parseOnlineCount(nodeData);
-                nodeOnlineCountMap.put(node, onlineCount);
-
-                if (onlineCount < minCount) {
-                    minCount = onlineCount;
-                    bestNode = node;
-                }
-            }
-
-            return bestNode;
-        } catch (Exception e) {
-            e.printStackTrace();
+        return getBestNode(null);
+    }
+
+    /**
+     * 按配置的策略选择Netty节点地址
+     * @param key 选择依据（如用户ID），策略不需要时可为null
+     */
+    public String getBestNode(String key) {
+        NodeRecord node = strategy.select(view, key);
+        if (node == null) {
             return null;
         }
+        inFlightTracker.assigned(node.getAddress());
+        return node.getAddress();
     }
 
     /**
-     * 解析节点数据中的在线人数
+     * 当前节点快照
      */
-    private int parseOnlineCount(String nodeData) {
-        // 简化实现，实际应该使用JSON解析
-        try {
-            int start = nodeData.indexOf("onlineCount") + 13;
-            int end = nodeData.indexOf("}", start);
-            return Integer.parseInt(nodeData.substring(start, end));
-        } catch (Exception e) {
-            return 0;
-        }
+    public NodeView getView() {
+        return view;
     }
 
     /**
      * 获取所有可用节点
      */
     public List<String> getAllNodes() {
-        try {
-            return curatorFramework.getChildren().forPath(zookeeperBasePath);
-        } catch (Exception e) {
-            e.printStackTrace();
-            return new ArrayList<>();
+        return view.addresses();
+    }
+
+    @PreDestroy
+    public void close() {
+        if (nodeCache != null) {
+            nodeCache.close();
+        }
+        if (curatorFramework != null) {
+            curatorFramework.close();
         }
     }
-}
\ No newline at end of file
+}
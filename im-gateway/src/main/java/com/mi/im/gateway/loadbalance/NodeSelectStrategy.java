@@ -0,0 +1,17 @@
+package com.mi.im.gateway.loadbalance;
+
+import com.mi.im.common.registry.NodeRecord;
+
+/**
+ * Netty节点选择策略
+ */
+public interface NodeSelectStrategy {
+
+    /**
+     * 从当前节点快照中选择一个节点
+     * @param view 节点快照，非空
+     * @param key 选择依据（如用户ID），不需要时为null
+     * @return 选中的节点，没有可用节点时返回null
+     */
+    NodeRecord select(NodeView view, String key);
+}
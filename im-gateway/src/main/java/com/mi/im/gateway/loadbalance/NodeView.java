@@ -0,0 +1,105 @@
+package com.mi.im.gateway.loadbalance;
+
+import com.mi.im.common.registry.NodeRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Netty节点的不可变快照，节点按连接数升序排列
+ * 节点变化时整体重建并替换引用，读取方无需加锁
+ */
+public final class NodeView {
+
+    public static final NodeView EMPTY = new NodeView(Collections.emptyList());
+
+    private final NodeRecord[] nodes;
+    private final List<String> addresses;
+    private final Map<String, NodeRecord> byAddress;
+    private final long totalConnections;
+    private final long totalWeight;
+
+    private NodeView(Collection<NodeRecord> records) {
+        this.nodes = records.toArray(new NodeRecord[0]);
+        Arrays.sort(nodes, Comparator.comparingLong(NodeRecord::getConnections)
+                .thenComparing(NodeRecord::getAddress));
+        List<String> addresses = new ArrayList<>(nodes.length);
+        Map<String, NodeRecord> byAddress = new HashMap<>(nodes.length * 2);
+        long totalConnections = 0;
+        long totalWeight = 0;
+        for (NodeRecord node : nodes) {
+            addresses.add(node.getAddress());
+            byAddress.put(node.getAddress(), node);
+            totalConnections += node.getConnections();
+            totalWeight += weightOf(node);
+        }
+        this.addresses = Collections.unmodifiableList(addresses);
+        this.byAddress = byAddress;
+        this.totalConnections = totalConnections;
+        this.totalWeight = totalWeight;
+    }
+
+    public static NodeView of(Collection<NodeRecord> records) {
+        return records.isEmpty() ? EMPTY : new NodeView(records);
+    }
+
+    /**
+     * 连接数最少的节点，没有节点时返回null
+     */
+    public NodeRecord leastLoaded() {
+        return nodes.length == 0 ? null : nodes[0];
+    }
+
+    public NodeRecord get(int index) {
+        return nodes[index];
+    }
+
+    /**
+     * 按地址查找节点，不存在时返回null
+     */
+    public NodeRecord get(String address) {
+        return byAddress.get(address);
+    }
+
+    /**
+     * 所有节点已发布的连接数之和
+     */
+    public long totalConnections() {
+        return totalConnections;
+    }
+
+    /**
+     * 所有节点的权重之和
+     */
+    public long totalWeight() {
+        return totalWeight;
+    }
+
+    /**
+     * 节点的容量权重，未配置时按1计算
+     */
+    public static int weightOf(NodeRecord node) {
+        return Math.max(1, node.getWeight());
+    }
+
+    public int size() {
+        return nodes.length;
+    }
+
+    public boolean isEmpty() {
+        return nodes.length == 0;
+    }
+
+    /**
+     * 所有节点地址（按连接数升序）
+     */
+    public List<String> addresses() {
+        return addresses;
+    }
+}
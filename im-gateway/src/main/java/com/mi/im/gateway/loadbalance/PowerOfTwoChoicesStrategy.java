@@ -0,0 +1,67 @@
+package com.mi.im.gateway.loadbalance;
+
+import com.mi.im.common.registry.NodeRecord;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 加权二选一策略（power of two choices）
+ * 随机取两个节点，选择 (已发布连接数 + 本网关上次发布后分配的连接数) / 有效权重 较小的一个。
+ * 随机采样避免突发登录全部涌向同一个最空的节点；
+ * 新节点在慢启动窗口内有效权重从下限线性升到配置权重，避免刚启动就被打满
+ */
+public class PowerOfTwoChoicesStrategy implements NodeSelectStrategy {
+
+    private final InFlightTracker tracker;
+    private final long slowStartWindow;
+    private final double slowStartMinFactor;
+
+    /**
+     * @param slowStartWindow 慢启动时长（毫秒），0表示不启用
+     * @param slowStartMinFactor 慢启动开始时的权重系数
+     */
+    public PowerOfTwoChoicesStrategy(InFlightTracker tracker, long slowStartWindow, double slowStartMinFactor) {
+        this.tracker = tracker;
+        this.slowStartWindow = slowStartWindow;
+        this.slowStartMinFactor = slowStartMinFactor;
+    }
+
+    @Override
+    public NodeRecord select(NodeView view, String key) {
+        int size = view.size();
+        if (size == 0) {
+            return null;
+        }
+        if (size == 1) {
+            return view.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+        NodeRecord a = view.get(first);
+        NodeRecord b = view.get(second);
+        long now = System.currentTimeMillis();
+        return load(a, now) <= load(b, now) ? a : b;
+    }
+
+    private double load(NodeRecord node, long now) {
+        long connections = node.getConnections() + tracker.inFlight(node.getAddress());
+        return (connections + 1) / effectiveWeight(node, now);
+    }
+
+    private double effectiveWeight(NodeRecord node, long now) {
+        double weight = NodeView.weightOf(node);
+        long registeredAt = tracker.registeredAt(node.getAddress());
+        if (slowStartWindow <= 0 || registeredAt <= 0) {
+            return weight;
+        }
+        double progress = (double) (now - registeredAt) / slowStartWindow;
+        if (progress >= 1) {
+            return weight;
+        }
+        return weight * Math.max(slowStartMinFactor, progress);
+    }
+}
@@ -0,0 +1,92 @@
+package com.mi.im.message.config;
+
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.TopicExchange;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * RabbitMQ配置：消息持久化队列、离线消息记录队列及批量消费的监听容器
+ */
+@Configuration
+public class RabbitConfig {
+
+    @Value("${rabbitmq.exchange.message-persist:im.message}")
+    private String persistExchange;
+
+    @Value("${rabbitmq.queue.message-persist:im.message.persist}")
+    private String persistQueue;
+
+    @Value("${rabbitmq.routing-key.message-persist:message.persist}")
+    private String persistRoutingKey;
+
+    @Value("${rabbitmq.queue.message-offline:im.message.offline}")
+    private String offlineQueue;
+
+    @Value("${rabbitmq.routing-key.message-offline:message.offline}")
+    private String offlineRoutingKey;
+
+    // 每次批量消费的MQ消息数（每条MQ消息本身是Netty节点打包的一批聊天消息）
+    @Value("${message.persist.consumer-batch-size:20}")
+    private int consumerBatchSize;
+
+    // 批次未满时等待的时间（毫秒），超时后按已收到的消息入库
+    @Value("${message.persist.receive-timeout:200}")
+    private long receiveTimeout;
+
+    @Value("${message.persist.concurrency:2}")
+    private int concurrency;
+
+    @Bean
+    public TopicExchange persistExchange() {
+        return new TopicExchange(persistExchange, true, false);
+    }
+
+    @Bean
+    public Queue persistQueue() {
+        return new Queue(persistQueue, true);
+    }
+
+    @Bean
+    public Binding persistBinding(Queue persistQueue, TopicExchange persistExchange) {
+        return BindingBuilder.bind(persistQueue).to(persistExchange).with(persistRoutingKey);
+    }
+
+    /**
+     * 离线收件箱淘汰的消息记录
+     */
+    @Bean
+    public Queue offlineQueue() {
+        return new Queue(offlineQueue, true);
+    }
+
+    @Bean
+    public Binding offlineBinding(Queue offlineQueue, TopicExchange persistExchange) {
+        return BindingBuilder.bind(offlineQueue).to(persistExchange).with(offlineRoutingKey);
+    }
+
+    /**
+     * 批量消费容器：手动确认，入库事务提交后再ack
+     */
+    @Bean
+    public SimpleRabbitListenerContainerFactory persistBatchContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer, ConnectionFactory connectionFactory) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(consumerBatchSize);
+        factory.setPrefetchCount(consumerBatchSize * 2);
+        factory.setReceiveTimeout(receiveTimeout);
+        factory.setConcurrentConsumers(concurrency);
+        return factory;
+    }
+}
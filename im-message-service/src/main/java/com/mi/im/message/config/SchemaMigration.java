@@ -0,0 +1,87 @@
+package com.mi.im.message.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 启动时升级表结构，可重复执行
+ * 在MQ监听容器启动（开始消费入库）之前完成：
+ * 1. 执行 db/schema.sql（只包含 CREATE TABLE IF NOT EXISTS）；
+ * 2. im_message 缺少 message_id 唯一索引时，先删除重复投递产生的重复行（每个message_id保留一行），再添加索引。
+ * 批量入库的 INSERT IGNORE 依赖该索引去重，升级失败时启动失败
+ */
+@Component
+public class SchemaMigration {
+    private static final Logger logger = LoggerFactory.getLogger(SchemaMigration.class);
+
+    private static final String MESSAGE_ID_INDEX = "uk_message_id";
+
+    // 其他实例仍在写入时添加索引可能因新的重复行失败，重新去重后重试
+    private static final int MAX_ATTEMPTS = 3;
+
+    // 关闭后由DBA手工执行同样的步骤
+    @Value("${message.schema.migrate:true}")
+    private boolean enabled;
+
+    @Autowired
+    private DataSource dataSource;
+
+    private JdbcTemplate jdbcTemplate;
+
+    @PostConstruct
+    public void migrate() {
+        if (!enabled) {
+            return;
+        }
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        new ResourceDatabasePopulator(new ClassPathResource("db/schema.sql")).execute(dataSource);
+
+        for (int attempt = 1; !hasMessageIdIndex(); attempt++) {
+            int removed = removeDuplicateMessages();
+            try {
+                jdbcTemplate.execute("ALTER TABLE im_message ADD UNIQUE KEY " + MESSAGE_ID_INDEX + " (message_id)");
+                logger.info("im_message已添加message_id唯一索引，删除重复行{}条", removed);
+                return;
+            } catch (DataAccessException e) {
+                // 其他实例同时添加了索引时下一轮检查直接通过
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw new IllegalStateException("im_message添加message_id唯一索引失败", e);
+                }
+                logger.warn("im_message添加message_id唯一索引失败，重试: {}", e.getMessage());
+            }
+        }
+    }
+
+    private boolean hasMessageIdIndex() {
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM information_schema.statistics"
+                        + " WHERE table_schema = DATABASE() AND table_name = 'im_message' AND index_name = ?",
+                Integer.class, MESSAGE_ID_INDEX);
+        return count != null && count > 0;
+    }
+
+    // 重复行是同一批次重复投递写入的相同消息，每个message_id保留任意一行即可
+    private int removeDuplicateMessages() {
+        List<Map<String, Object>> duplicates = jdbcTemplate.queryForList(
+                "SELECT message_id, COUNT(*) AS copies FROM im_message GROUP BY message_id HAVING COUNT(*) > 1");
+        int removed = 0;
+        for (Map<String, Object> row : duplicates) {
+            long extra = ((Number) row.get("copies")).longValue() - 1;
+            removed += jdbcTemplate.update("DELETE FROM im_message WHERE message_id = ? LIMIT ?",
+                    row.get("message_id"), extra);
+        }
+        return removed;
+    }
+}
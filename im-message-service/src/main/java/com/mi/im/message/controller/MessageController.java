@@ -0,0 +1,43 @@
+package com.mi.im.message.controller;
+
+import com.mi.im.common.model.Message;
+import com.mi.im.message.service.MessageService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 消息接口，经网关 /api/message/** 访问
+ */
+@RestController
+@RequestMapping("/message")
+public class MessageController {
+
+    // 每页最多条数
+    private static final int MAX_LIMIT = 500;
+
+    @Autowired
+    private MessageService messageService;
+
+    /**
+     * 分页拉取离线消息（Redis收件箱溢出后更早的部分），按(发送时间, 消息ID)倒序
+     * 用户ID由网关按登录令牌设置在请求头中。游标由发送时间和消息ID组成：
+     * 首次请求取溢出通知的发送时间和消息ID（通知的消息ID为空，包含该时间的全部溢出消息），
+     * 之后取上一页最后一条消息的发送时间和消息ID
+     */
+    @GetMapping("/offline")
+    public List<Message> getOfflineMessages(
+            @RequestHeader("X-User-Id") String userId,
+            @RequestParam(value = "beforeTime", required = false) Long beforeTime,
+            @RequestParam(value = "beforeMessageId", required = false) String beforeMessageId,
+            @RequestParam(value = "limit", defaultValue = "100") Integer limit) {
+        return messageService.getOfflineMessages(userId, beforeTime != null ? new Date(beforeTime) : null,
+                beforeMessageId, Math.max(1, Math.min(limit, MAX_LIMIT)));
+    }
+}
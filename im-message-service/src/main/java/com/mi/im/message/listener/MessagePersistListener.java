@@ -0,0 +1,83 @@
+package com.mi.im.message.listener;
+
+import com.alibaba.fastjson.JSON;
+import com.mi.im.common.model.Message;
+import com.mi.im.common.model.OfflineMessage;
+import com.mi.im.message.service.MessageService;
+import com.rabbitmq.client.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 消息持久化监听器
+ * 批量接收Netty节点发布的消息批次，在一个事务中多值插入，事务提交后再确认；
+ * 入库失败时重新入队，由消息ID唯一索引保证重复投递不会重复入库
+ */
+@Component
+public class MessagePersistListener {
+    private static final Logger logger = LoggerFactory.getLogger(MessagePersistListener.class);
+
+    @Autowired
+    private MessageService messageService;
+
+    @RabbitListener(queues = "${rabbitmq.queue.message-persist:im.message.persist}",
+            containerFactory = "persistBatchContainerFactory")
+    public void onMessages(List<org.springframework.amqp.core.Message> amqpMessages, Channel channel) throws IOException {
+        consume(amqpMessages, channel, Message.class, messageService::saveMessages, "消息");
+    }
+
+    /**
+     * 离线收件箱淘汰的消息记录，按接收者入库
+     */
+    @RabbitListener(queues = "${rabbitmq.queue.message-offline:im.message.offline}",
+            containerFactory = "persistBatchContainerFactory")
+    public void onOfflineMessages(List<org.springframework.amqp.core.Message> amqpMessages, Channel channel)
+            throws IOException {
+        consume(amqpMessages, channel, OfflineMessage.class, messageService::saveOfflineMessages, "离线消息记录");
+    }
+
+    private <T> void consume(List<org.springframework.amqp.core.Message> amqpMessages, Channel channel,
+                             Class<T> type, Function<List<T>, Integer> save, String name) throws IOException {
+        List<T> records = new ArrayList<>();
+        List<Long> deliveryTags = new ArrayList<>(amqpMessages.size());
+        for (org.springframework.amqp.core.Message amqpMessage : amqpMessages) {
+            long deliveryTag = amqpMessage.getMessageProperties().getDeliveryTag();
+            try {
+                records.addAll(JSON.parseArray(new String(amqpMessage.getBody(), StandardCharsets.UTF_8), type));
+                deliveryTags.add(deliveryTag);
+            } catch (Exception e) {
+                // 格式错误的批次无法恢复，直接丢弃，避免反复重投
+                logger.error("持久化批次格式错误，已丢弃", e);
+                channel.basicReject(deliveryTag, false);
+            }
+        }
+        if (deliveryTags.isEmpty()) {
+            return;
+        }
+
+        try {
+            int inserted = save.apply(records);
+            logger.debug("批量持久化{}{}条，新增{}条", name, records.size(), inserted);
+        } catch (Exception e) {
+            logger.error("批量持久化{}失败，{}个批次重新入队", name, deliveryTags.size(), e);
+            for (Long deliveryTag : deliveryTags) {
+                channel.basicNack(deliveryTag, false, true);
+            }
+            return;
+        }
+
+        // 事务已提交，确认本次处理的所有批次
+        for (Long deliveryTag : deliveryTags) {
+            channel.basicAck(deliveryTag, false);
+        }
+    }
+}
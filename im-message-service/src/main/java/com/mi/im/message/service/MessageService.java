@@ -1,13 +1,18 @@
 package com.mi.im.message.service;
 
 import com.mi.im.common.model.Message;
+import com.mi.im.common.model.OfflineMessage;
 
+import java.util.Date;
 import java.util.List;
 
 public interface MessageService {
     boolean saveMessage(Message message);
+    int saveMessages(List<Message> messages);
     List<Message> getHistoryMessages(String userId, String targetId, Long startTime, Long endTime, Integer limit);
     List<Message> getOfflineMessages(String userId);
+    List<Message> getOfflineMessages(String userId, Date beforeTime, String beforeMessageId, Integer limit);
+    int saveOfflineMessages(List<OfflineMessage> records);
     boolean markMessageAsRead(String messageId);
     boolean saveMessageToSearch(Message message);
 }
\ No newline at end of file
@@ -1,7 +1,9 @@
 package com.mi.im.message.service.impl;
 
 import com.alibaba.fastjson.JSON;
+import com.mi.im.common.constant.MessageConstants;
 import com.mi.im.common.model.Message;
+import com.mi.im.common.model.OfflineMessage;
 import com.mi.im.message.service.MessageService;
 import com.mi.im.message.service.mapper.MessageMapper;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
@@ -20,6 +22,9 @@ import java.util.UUID;
 @Service
 public class MessageServiceImpl implements MessageService {
 
+    // 单条INSERT语句最多包含的行数，避免超出max_allowed_packet
+    private static final int BATCH_INSERT_ROWS = 1000;
+
     @Autowired
     private MessageMapper messageMapper;
     
@@ -45,6 +50,32 @@ public class MessageServiceImpl implements MessageService {
         return result > 0;
     }
 
+    @Override
+    @Transactional
+    public int saveMessages(List<Message> messages) {
+        Date now = new Date();
+        for (Message message : messages) {
+            // Netty节点已分配ID和发送时间，这里只补全缺失的字段
+            if (message.getMessageId() == null) {
+                message.setMessageId(UUID.randomUUID().toString());
+            }
+            if (message.getSendTime() == null) {
+                message.setSendTime(now);
+            }
+            if (message.getStatus() == null) {
+                message.setStatus(MessageConstants.MESSAGE_STATUS_SENDING);
+            }
+        }
+        
+        // 整批在同一事务中按多值INSERT写入
+        int result = 0;
+        for (int from = 0; from < messages.size(); from += BATCH_INSERT_ROWS) {
+            int to = Math.min(from + BATCH_INSERT_ROWS, messages.size());
+            result += messageMapper.batchInsert(messages.subList(from, to));
+        }
+        return result;
+    }
+
     @Override
     public List<Message> getHistoryMessages(String userId, String targetId, Long startTime, Long endTime, Integer limit) {
         return messageMapper.selectHistoryMessages(userId, targetId, startTime, endTime, limit);
@@ -55,6 +86,22 @@ public class MessageServiceImpl implements MessageService {
         return messageMapper.selectOfflineMessages(userId);
     }
 
+    @Override
+    public List<Message> getOfflineMessages(String userId, Date beforeTime, String beforeMessageId, Integer limit) {
+        return messageMapper.selectOfflineMessagesBefore(userId, beforeTime, beforeMessageId, limit);
+    }
+
+    @Override
+    @Transactional
+    public int saveOfflineMessages(List<OfflineMessage> records) {
+        int result = 0;
+        for (int from = 0; from < records.size(); from += BATCH_INSERT_ROWS) {
+            int to = Math.min(from + BATCH_INSERT_ROWS, records.size());
+            result += messageMapper.batchInsertOffline(records.subList(from, to));
+        }
+        return result;
+    }
+
     @Override
     public boolean markMessageAsRead(String messageId) {
         int result = messageMapper.updateMessageStatus(messageId);
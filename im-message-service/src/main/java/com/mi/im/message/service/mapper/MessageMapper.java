@@ -1,7 +1,11 @@
 package com.mi.im.message.service.mapper;
 
 import com.mi.im.common.model.Message;
+import com.mi.im.common.model.OfflineMessage;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -17,6 +21,14 @@ public interface MessageMapper {
      */
     int insert(Message message);
 
+    /**
+     * 批量插入消息（单条多值INSERT），消息ID已存在的行忽略，重复投递的批次不会重复入库
+     * 依赖im_message表的message_id唯一索引（uk_message_id，启动时由 SchemaMigration 添加），没有该索引时重复行会直接写入
+     * @param messages 消息列表
+     * @return 影响行数
+     */
+    int batchInsert(List<Message> messages);
+
     /**
      * 获取历史消息
      * @param userId 发送者ID
@@ -35,6 +47,28 @@ public interface MessageMapper {
      */
     List<Message> selectOfflineMessages(String userId);
 
+    /**
+     * 批量插入离线消息记录（离线收件箱淘汰的消息，每个接收者一行），已存在的记录忽略
+     * 依赖im_offline_message表的(receiver_id, message_id)唯一索引，见 db/schema.sql
+     * @param records 离线消息记录
+     * @return 影响行数
+     */
+    int batchInsertOffline(List<OfflineMessage> records);
+
+    /**
+     * 按(发送时间, 消息ID)倒序分页获取离线消息（键集分页，走im_offline_message的receiver_id+send_time+message_id索引）
+     * 发送时间不唯一（如同一条群消息溢出到多个接收者），以消息ID区分同一时间的消息，翻页时不会跳过；
+     * 群消息在消息表中只有一行，通过离线消息记录关联到每个接收者
+     * @param userId 用户ID
+     * @param beforeTime 游标的发送时间，为空时从最新开始
+     * @param beforeMessageId 游标的消息ID，只取(发送时间, 消息ID)小于游标的消息；为空时包含beforeTime当时的全部消息
+     * @param limit 每页条数
+     * @return 离线消息列表
+     */
+    List<Message> selectOfflineMessagesBefore(@Param("userId") String userId, @Param("beforeTime") Date beforeTime,
+                                              @Param("beforeMessageId") String beforeMessageId,
+                                              @Param("limit") Integer limit);
+
     /**
      * 标记消息为已读
      * @param messageId 消息ID
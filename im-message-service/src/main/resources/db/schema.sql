@@ -0,0 +1,15 @@
+-- 消息服务依赖的表结构（im_message 表的其余定义由数据库初始化脚本维护）
+-- 启动时由 SchemaMigration 执行，语句须可重复执行；
+-- im_message 的 message_id 唯一索引（批量入库 INSERT IGNORE 去重依赖）无法用可重复执行的DDL表达，
+-- 由 SchemaMigration 检查后去重并添加
+
+-- 离线消息记录：Redis离线收件箱超出容量时淘汰的消息，每个接收者一行，消息内容关联im_message
+CREATE TABLE IF NOT EXISTS im_offline_message (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    receiver_id VARCHAR(64) NOT NULL,
+    message_id VARCHAR(64) NOT NULL,
+    send_time DATETIME(3) NOT NULL,
+    PRIMARY KEY (id),
+    UNIQUE KEY uk_receiver_message (receiver_id, message_id),
+    KEY idx_receiver_send_time (receiver_id, send_time, message_id)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4;
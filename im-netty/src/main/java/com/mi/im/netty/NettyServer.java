@@ -1,28 +1,27 @@
 package com.mi.im.netty;
 
+import com.mi.im.netty.cluster.NodeDrainer;
+import com.mi.im.netty.cluster.NodeRegistry;
 import com.mi.im.netty.config.NettyConfig;
+import com.mi.im.netty.config.TransportSelector;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import org.apache.curator.framework.CuratorFramework;
-import org.apache.curator.framework.CuratorFrameworkFactory;
-import org.apache.curator.retry.ExponentialBackoffRetry;
-import org.apache.zookeeper.CreateMode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
-import java.net.InetAddress;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Component
 public class NettyServer implements ApplicationRunner {
@@ -32,19 +31,23 @@ public class NettyServer implements ApplicationRunner {
     @Value("${netty.port:8080}")
     private int port;
     
-    @Value("${zookeeper.address:localhost:2181}")
-    private String zookeeperAddress;
+    @Autowired
+    private NettyConfig nettyConfig;
+    
+    @Autowired
+    private TransportSelector transportSelector;
     
-    @Value("${netty.server.path:/im/netty/servers}")
-    private String serverPath;
+    @Autowired
+    private NodeRegistry nodeRegistry;
     
     @Autowired
-    private NettyConfig nettyConfig;
+    private NodeDrainer nodeDrainer;
     
     private EventLoopGroup bossGroup;
     private EventLoopGroup workerGroup;
-    private CuratorFramework client;
-    private String serverNodePath;
+    private final List<Channel> serverChannels = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicBoolean shutdown = new AtomicBoolean();
     
     @Override
     public void run(ApplicationArguments args) throws Exception {
@@ -52,92 +55,68 @@ public class NettyServer implements ApplicationRunner {
     }
     
     public void start() throws Exception {
-        // 初始化Zookeeper客户端
-        initZookeeper();
-        
-        // 创建事件循环组
-        bossGroup = new NioEventLoopGroup(1);
-        workerGroup = new NioEventLoopGroup();
+        // 创建事件循环组（epoll可用时使用epoll，否则回退到NIO）
+        bossGroup = transportSelector.newBossGroup();
+        workerGroup = transportSelector.newWorkerGroup();
         
         try {
             ServerBootstrap bootstrap = new ServerBootstrap();
             bootstrap.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
-                    .option(ChannelOption.SO_BACKLOG, 1024)
-                    .childOption(ChannelOption.SO_KEEPALIVE, true)
                     .childHandler(nettyConfig.channelInitializer());
+            transportSelector.configure(bootstrap);
             
-            // 绑定端口
-            ChannelFuture future = bootstrap.bind(port).sync();
-            logger.info("Netty服务器启动成功，端口: {}", port);
-            
-            // 注册到Zookeeper
-            registerToZookeeper();
+            // 绑定端口，启用SO_REUSEPORT时每个boss线程各绑定一次，由内核分摊accept
+            ChannelFuture future = null;
+            for (int i = 0; i < transportSelector.bindCount(); i++) {
+                future = bootstrap.bind(port).sync();
+                serverChannels.add(future.channel());
+            }
+            logger.info("Netty服务器启动成功，端口: {}，acceptor数: {}", port, transportSelector.bindCount());
             
-            // 启动心跳检测
-            startHeartbeat();
+            // 注册到Zookeeper，并定期发布节点负载
+            nodeRegistry.start(workerGroup);
             
             // 等待关闭
             future.channel().closeFuture().sync();
         } finally {
-            shutdown();
+            // 排空关闭了监听端口时，事件循环留到容器销毁时关闭，排空期间连接仍在收发消息
+            if (!draining.get()) {
+                shutdown();
+            }
         }
     }
     
-    // 初始化Zookeeper
-    private void initZookeeper() {
-        client = CuratorFrameworkFactory.builder()
-                .connectString(zookeeperAddress)
-                .retryPolicy(new ExponentialBackoffRetry(1000, 3))
-                .build();
-        client.start();
-    }
-    
-    // 注册到Zookeeper
-    private void registerToZookeeper() throws Exception {
-        // 获取本机IP
-        String ip = InetAddress.getLocalHost().getHostAddress();
-        String serverInfo = ip + ":" + port;
-        
-        // 确保父节点存在
-        if (client.checkExists().forPath(serverPath) == null) {
-            client.create().creatingParentsIfNeeded().withMode(CreateMode.PERSISTENT).forPath(serverPath);
+    /**
+     * 容器关闭时先排空连接
+     * ContextClosedEvent在停止各Lifecycle组件之前发布，排空期间本节点队列的MQ监听仍在消费，
+     * 其他节点转发给仍连接在本节点的用户的消息照常投递
+     */
+    @EventListener(ContextClosedEvent.class)
+    public void drain() {
+        if (serverChannels.isEmpty() || !draining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            nodeDrainer.drain(serverChannels);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("节点排空被中断");
         }
-        
-        // 创建临时节点
-        serverNodePath = client.create().withMode(CreateMode.EPHEMERAL_SEQUENTIAL)
-                .forPath(serverPath + "/server-", serverInfo.getBytes());
-        
-        logger.info("注册到Zookeeper成功: {}", serverNodePath);
-    }
-    
-    // 启动心跳检测
-    private void startHeartbeat() {
-        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
-        executor.scheduleAtFixedRate(() -> {
-            try {
-                // 检查Zookeeper连接
-                if (client != null && client.getZookeeperClient().isConnected()) {
-                    // 更新节点数据（心跳）
-                    client.setData().forPath(serverNodePath, "".getBytes());
-                }
-            } catch (Exception e) {
-                logger.error("心跳检测失败: {}", e.getMessage());
-            }
-        }, 30, 30, TimeUnit.SECONDS);
     }
     
-    // 关闭服务器
+    // 关闭服务器：注销并关闭事件循环（连接已在容器关闭事件中排空）
+    @PreDestroy
     public void shutdown() {
+        if (!shutdown.compareAndSet(false, true)) {
+            return;
+        }
+        nodeRegistry.stop();
         if (workerGroup != null) {
             workerGroup.shutdownGracefully();
         }
         if (bossGroup != null) {
             bossGroup.shutdownGracefully();
         }
-        if (client != null) {
-            client.close();
-        }
         logger.info("Netty服务器关闭");
     }
 }
\ No newline at end of file
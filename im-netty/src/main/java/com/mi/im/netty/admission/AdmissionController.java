@@ -0,0 +1,175 @@
+package com.mi.im.netty.admission;
+
+import com.mi.im.netty.cluster.NodeDrainer;
+import com.mi.im.netty.metrics.NettyMetrics;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 连接准入控制
+ * 其他节点宕机后大量客户端同时重连到本节点时，分三层削峰：
+ * 1. 握手限速：超过速率的握手不校验票据，升级后立即以1013关闭；
+ * 2. 登录排队：认证到离线补发完成前占用一个名额，名额用完时拒绝新的认证消息；
+ * 3. 补发限并发：离线补发在独立的有界线程池中执行，不占用消息分发线程。
+ * 拒绝时在关闭帧中携带带随机抖动的重试等待时间，客户端按此错开重连
+ */
+@Component
+public class AdmissionController {
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionController.class);
+
+    // 握手被限速的连接，值为建议的重试等待时间（毫秒）
+    public static final AttributeKey<Long> RETRY_AFTER = AttributeKey.valueOf("im.retryAfter");
+
+    // 1013 Try Again Later
+    public static final int CLOSE_TRY_AGAIN_LATER = 1013;
+
+    // 每秒允许的握手数
+    @Value("${netty.admission.handshake-rate:1000}")
+    private double handshakeRate;
+
+    // 允许的握手突发数
+    @Value("${netty.admission.handshake-burst:2000}")
+    private int handshakeBurst;
+
+    // 同时处于认证和离线补发阶段的连接数上限
+    @Value("${netty.admission.max-pending-logins:5000}")
+    private int maxPendingLogins;
+
+    // 离线补发线程数
+    @Value("${netty.admission.replay-threads:8}")
+    private int replayThreads;
+
+    // 重试等待的基础时间（毫秒）
+    @Value("${netty.admission.retry-after-base:1000}")
+    private long retryAfterBase;
+
+    // 重试等待的随机抖动范围（毫秒），按当前压力放大
+    @Value("${netty.admission.retry-after-jitter:10000}")
+    private long retryAfterJitter;
+
+    @Autowired
+    private NettyMetrics metrics;
+
+    @Autowired
+    private NodeDrainer nodeDrainer;
+
+    private RateLimiter handshakeLimiter;
+    private ThreadPoolExecutor replayExecutor;
+    private final AtomicInteger pendingLogins = new AtomicInteger();
+
+    @PostConstruct
+    public void init() {
+        handshakeLimiter = new RateLimiter(handshakeRate, handshakeBurst);
+        // 每个排队中的补发都持有一个登录名额，队列容量与名额数相同即不会溢出
+        replayExecutor = new ThreadPoolExecutor(replayThreads, replayThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, maxPendingLogins)), new DefaultThreadFactory("im-replay"));
+    }
+
+    /**
+     * 握手准入
+     * @return 0-准入；大于0-被限速，为建议的重试等待时间（毫秒）
+     */
+    public long tryAcquireHandshake() {
+        if (nodeDrainer.isDraining()) {
+            // 排空中：关闭监听端口前已接入的握手也让客户端去其他节点
+            metrics.incrementHandshakeRejected();
+            return retryAfter(0, 0.1);
+        }
+        long waitNanos = handshakeLimiter.tryAcquire();
+        if (waitNanos == 0) {
+            return 0;
+        }
+        metrics.incrementHandshakeRejected();
+        return retryAfter(TimeUnit.NANOSECONDS.toMillis(waitNanos), 1.0);
+    }
+
+    /**
+     * 占用一个登录名额，成功后必须在认证失败或补发结束时调用 {@link #exitLogin()}
+     */
+    public boolean tryEnterLogin() {
+        while (true) {
+            int pending = pendingLogins.get();
+            if (pending >= maxPendingLogins) {
+                metrics.incrementLoginRejected();
+                return false;
+            }
+            if (pendingLogins.compareAndSet(pending, pending + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void exitLogin() {
+        pendingLogins.decrementAndGet();
+    }
+
+    /**
+     * 在补发线程池中执行离线补发，结束后释放登录名额
+     * @return 是否已提交；未提交时名额仍由调用方释放
+     */
+    public boolean submitReplay(Runnable replay) {
+        try {
+            replayExecutor.execute(() -> {
+                try {
+                    replay.run();
+                } catch (Exception e) {
+                    logger.error("离线消息补发异常", e);
+                } finally {
+                    exitLogin();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 登录名额已满时的建议重试等待时间（毫秒）
+     */
+    public long loginRetryAfter() {
+        return retryAfter(0, (double) pendingLogins.get() / Math.max(1, maxPendingLogins));
+    }
+
+    /**
+     * 以1013关闭帧拒绝连接，原因字段为 retry-after=毫秒数
+     */
+    public void reject(Channel channel, long retryAfter) {
+        // 不再读取客户端的后续帧
+        channel.config().setAutoRead(false);
+        channel.writeAndFlush(new CloseWebSocketFrame(CLOSE_TRY_AGAIN_LATER, "retry-after=" + retryAfter))
+                .addListener(ChannelFutureListener.CLOSE);
+    }
+
+    public int pendingLogins() {
+        return pendingLogins.get();
+    }
+
+    // 基础等待 + 按压力放大的随机抖动，避免被拒绝的客户端在同一时刻再次涌入
+    private long retryAfter(long minWait, double pressure) {
+        long window = (long) (retryAfterJitter * Math.min(1.0, Math.max(0.1, pressure)));
+        return Math.max(minWait, retryAfterBase) + ThreadLocalRandom.current().nextLong(window + 1);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        replayExecutor.shutdown();
+    }
+}
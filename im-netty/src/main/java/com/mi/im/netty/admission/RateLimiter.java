@@ -0,0 +1,74 @@
+package com.mi.im.netty.admission;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁令牌桶限流器（GCRA算法）
+ * 只维护一个"理论到达时间"，每次获取用CAS推进，不需要后台补充令牌的线程；
+ * 允许的突发量为 burst 个请求，长期速率为每秒 rate 个
+ */
+public class RateLimiter {
+
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    // 理论到达时间（纳秒）
+    private final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param rate 每秒允许的请求数，大于0
+     * @param burst 允许的突发请求数，至少为1
+     */
+    public RateLimiter(double rate, int burst) {
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+        this.toleranceNanos = intervalNanos * Math.max(0, burst - 1);
+    }
+
+    /**
+     * 尝试获取一个许可
+     * @return 0-获取成功；大于0-获取失败，为下一个许可可用前需等待的纳秒数
+     */
+    public long tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    /**
+     * 获取一个许可前需等待的纳秒数，不消耗许可
+     * @return 0-当前可以获取；大于0-需等待的纳秒数
+     */
+    public long peek() {
+        long now = System.nanoTime();
+        long tat = theoreticalArrival.get();
+        long start = tat == Long.MIN_VALUE || tat - now < 0 ? now : tat;
+        return Math.max(0, start - now - toleranceNanos);
+    }
+
+    /**
+     * 令牌桶是否已满（一段时间未使用），此时丢弃后重新创建的限流器行为相同
+     */
+    public boolean isIdle() {
+        long tat = theoreticalArrival.get();
+        return tat == Long.MIN_VALUE || tat - System.nanoTime() <= 0;
+    }
+
+    /**
+     * 尝试一次获取多个许可
+     * @return 0-获取成功；大于0-获取失败，为许可足够前需等待的纳秒数
+     */
+    public long tryAcquire(int permits) {
+        long now = System.nanoTime();
+        long increment = intervalNanos * permits;
+        while (true) {
+            long tat = theoreticalArrival.get();
+            long start = tat == Long.MIN_VALUE || tat - now < 0 ? now : tat;
+            long next = start + increment;
+            long wait = next - now - toleranceNanos - intervalNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (theoreticalArrival.compareAndSet(tat, next)) {
+                return 0;
+            }
+        }
+    }
+}
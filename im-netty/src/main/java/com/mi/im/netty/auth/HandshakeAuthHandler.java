@@ -0,0 +1,97 @@
+package com.mi.im.netty.auth;
+
+import com.mi.im.common.ticket.ConnectTicket;
+import com.mi.im.netty.admission.AdmissionController;
+import com.mi.im.netty.metrics.NettyMetrics;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.util.AttributeKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * WebSocket握手认证处理器
+ * 在WebSocket协议处理器之前校验握手请求中的连接票据（?ticket=...），
+ * 校验失败直接返回401，不进行协议升级；校验通过后把票据绑定到通道，
+ * 去掉URL中的查询参数交给WebSocket协议处理器，并从pipeline中移除自身。
+ * 握手速率由 {@link AdmissionController} 限制，被限速的握手不做票据校验
+ */
+@Component
+@ChannelHandler.Sharable
+public class HandshakeAuthHandler extends ChannelInboundHandlerAdapter {
+    private static final Logger logger = LoggerFactory.getLogger(HandshakeAuthHandler.class);
+
+    // 握手时校验通过的连接票据
+    public static final AttributeKey<ConnectTicket> TICKET = AttributeKey.valueOf("im.ticket");
+
+    private static final String TICKET_PARAM = "ticket";
+
+    // 是否要求握手携带票据；关闭时未携带票据的旧客户端仍按认证消息中的用户ID登录
+    @Value("${im.ticket.required:true}")
+    private boolean required;
+
+    @Autowired
+    private TicketVerifier ticketVerifier;
+
+    @Autowired
+    private AdmissionController admissionController;
+
+    @Autowired
+    private NettyMetrics metrics;
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!(msg instanceof FullHttpRequest)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        FullHttpRequest request = (FullHttpRequest) msg;
+        QueryStringDecoder decoder = new QueryStringDecoder(request.uri());
+        long retryAfter = admissionController.tryAcquireHandshake();
+        List<String> tickets = decoder.parameters().get(TICKET_PARAM);
+        if (retryAfter > 0) {
+            // 超过握手速率：不校验票据，升级完成后由业务处理器以1013关闭帧告知重试时间
+            // （浏览器读不到握手失败的HTTP状态码）
+            ctx.channel().attr(AdmissionController.RETRY_AFTER).set(retryAfter);
+        } else if (tickets != null && !tickets.isEmpty()) {
+            try {
+                ctx.channel().attr(TICKET).set(ticketVerifier.verify(tickets.get(0)));
+            } catch (IllegalArgumentException e) {
+                logger.debug("连接票据无效: {}, {}", ctx.channel().remoteAddress(), e.getMessage());
+                reject(ctx, request);
+                return;
+            }
+        } else if (required) {
+            reject(ctx, request);
+            return;
+        }
+        // 票据不再向后传递，WebSocket协议处理器按路径精确匹配
+        request.setUri(decoder.path());
+        ctx.pipeline().remove(this);
+        ctx.fireChannelRead(request);
+    }
+
+    private void reject(ChannelHandlerContext ctx, FullHttpRequest request) {
+        request.release();
+        metrics.incrementAuthRejected();
+        FullHttpResponse response = new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1, HttpResponseStatus.UNAUTHORIZED, Unpooled.EMPTY_BUFFER);
+        response.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, 0);
+        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+    }
+}
@@ -0,0 +1,95 @@
+package com.mi.im.netty.auth;
+
+import com.mi.im.common.ticket.ConnectTicket;
+import com.mi.im.common.ticket.ConnectTicketCodec;
+import com.mi.im.netty.cluster.LocalNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 连接票据本地校验
+ * 票据由网关用共享密钥签名，节点只做HMAC校验，不调用用户服务；
+ * 票据中的节点必须是本节点，网关按负载和用户分配的节点不能被绕过，各节点的准入计数才准确；
+ * 已校验的票据缓存到过期为止，客户端重连风暴中重复提交同一票据时不再重复计算。
+ * 密钥轮换：网关改用新密钥签名，节点同时接受当前密钥和 retired-keys 中的旧密钥，
+ * 旧票据全部过期后再从节点配置中移除旧密钥
+ */
+@Component
+public class TicketVerifier {
+    private static final Logger logger = LoggerFactory.getLogger(TicketVerifier.class);
+
+    // 当前签名密钥ID，与网关配置一致
+    @Value("${im.ticket.key-id:k1}")
+    private String keyId;
+
+    // 当前签名密钥，与网关配置一致
+    @Value("${im.ticket.secret:}")
+    private String secret;
+
+    // 轮换中仍然接受的旧密钥，格式 keyId:secret,keyId:secret
+    @Value("${im.ticket.retired-keys:}")
+    private String retiredKeys;
+
+    // 最多缓存的已校验票据数，超出时整体清空
+    @Value("${im.ticket.cache-size:100000}")
+    private int cacheSize;
+
+    @Autowired
+    private LocalNode localNode;
+
+    private volatile Map<String, byte[]> keys;
+
+    // 票据 -> 校验结果
+    private final Map<String, ConnectTicket> cache = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        if (secret.isEmpty()) {
+            throw new IllegalStateException("未配置连接票据密钥 im.ticket.secret");
+        }
+        Map<String, byte[]> loaded = new HashMap<>();
+        for (String entry : retiredKeys.split(",")) {
+            int colon = entry.indexOf(':');
+            if (colon > 0) {
+                loaded.put(entry.substring(0, colon).trim(),
+                        entry.substring(colon + 1).trim().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        loaded.put(keyId, secret.getBytes(StandardCharsets.UTF_8));
+        keys = loaded;
+        logger.info("连接票据密钥: {}", loaded.keySet());
+    }
+
+    /**
+     * 校验票据
+     * @throws IllegalArgumentException 票据无效、已过期或不是签发给本节点的
+     */
+    public ConnectTicket verify(String token) {
+        long now = System.currentTimeMillis();
+        ConnectTicket cached = cache.get(token);
+        if (cached != null) {
+            if (cached.getExpireAt() >= now && keys.containsKey(cached.getKeyId())) {
+                return cached;
+            }
+            cache.remove(token);
+        }
+        ConnectTicket ticket = ConnectTicketCodec.verify(token, keys::get, now);
+        if (!localNode.getNodeId().equals(ticket.getNode())) {
+            throw new IllegalArgumentException("票据不是签发给本节点的: " + ticket.getNode());
+        }
+        if (cache.size() >= cacheSize) {
+            cache.clear();
+        }
+        cache.put(token, ticket);
+        return ticket;
+    }
+}
@@ -0,0 +1,151 @@
+package com.mi.im.netty.blacklist;
+
+import com.mi.im.common.constant.RedisKeyConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 节点本地黑名单缓存
+ * 按黑名单所属用户缓存精确集合，用户认证时预加载，其余用户首次查询时加载；
+ * 所有已加载的(所属用户, 被拉黑用户)对同时写入布隆过滤器，绝大多数未拉黑的情况不查集合直接放行。
+ * 布隆过滤器不支持删除，重复加载和移出黑名单的条目会一直占位：每个缓存有效期重建一次过滤器，
+ * 之后加载的条目写入新过滤器，旧条目在过期前继续使用加载时的过滤器，一个有效期后旧过滤器不再被引用
+ * 用户服务修改黑名单后通过Redis发布订阅通知各节点使缓存失效
+ */
+@Component
+public class BlacklistCache implements MessageListener {
+    private static final Logger logger = LoggerFactory.getLogger(BlacklistCache.class);
+
+    // 最多缓存的黑名单所属用户数，超出时整体清空
+    @Value("${im.blacklist.cache-size:100000}")
+    private int cacheSize;
+
+    // 缓存有效期（毫秒），兜底发布订阅通知丢失的情况
+    @Value("${im.blacklist.cache-ttl:600000}")
+    private long cacheTtl;
+
+    // 布隆过滤器预计容纳的黑名单条目数，按一个缓存有效期内加载的条目数估算
+    @Value("${im.blacklist.bloom-capacity:1000000}")
+    private long bloomCapacity;
+
+    @Value("${im.blacklist.bloom-fpp:0.01}")
+    private double bloomFpp;
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+
+    private volatile PairBloomFilter bloomFilter;
+    // 当前布隆过滤器的创建时间
+    private final AtomicLong bloomCreatedAt = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        bloomFilter = new PairBloomFilter(bloomCapacity, bloomFpp);
+        bloomCreatedAt.set(System.currentTimeMillis());
+    }
+
+    /**
+     * 从Redis加载用户的黑名单到本地缓存
+     */
+    public void load(String ownerId) {
+        Set<Object> members = redisTemplate.opsForSet().members(RedisKeyConstants.BLACKLIST_KEY_PREFIX + ownerId);
+        long now = System.currentTimeMillis();
+        if (cache.size() >= cacheSize) {
+            // 与路由缓存一致，超出容量时整体清空，布隆过滤器同时重建
+            cache.clear();
+            rotateBloomFilter(bloomCreatedAt.get(), now);
+        }
+        long createdAt = bloomCreatedAt.get();
+        if (now - createdAt >= cacheTtl) {
+            rotateBloomFilter(createdAt, now);
+        }
+        PairBloomFilter filter = bloomFilter;
+        Set<String> blocked;
+        if (members == null || members.isEmpty()) {
+            blocked = Collections.emptySet();
+        } else {
+            blocked = new HashSet<>(members.size() * 2);
+            for (Object member : members) {
+                String memberId = String.valueOf(member);
+                blocked.add(memberId);
+                filter.put(ownerId, memberId);
+            }
+        }
+        cache.put(ownerId, new Entry(blocked, filter, now + cacheTtl));
+    }
+
+    // 多个线程同时发现需要重建时只重建一次
+    private void rotateBloomFilter(long createdAt, long now) {
+        if (bloomCreatedAt.compareAndSet(createdAt, now)) {
+            bloomFilter = new PairBloomFilter(bloomCapacity, bloomFpp);
+        }
+    }
+
+    /**
+     * 用户ownerId是否拉黑了userId
+     */
+    public boolean isBlocked(String ownerId, String userId) {
+        if (ownerId == null || userId == null) {
+            return false;
+        }
+        Entry entry = cache.get(ownerId);
+        if (entry == null || entry.expireAt < System.currentTimeMillis()) {
+            load(ownerId);
+            entry = cache.get(ownerId);
+            if (entry == null) {
+                return false;
+            }
+        }
+        if (entry.blocked.isEmpty() || !entry.filter.mightContain(ownerId, userId)) {
+            return false;
+        }
+        return entry.blocked.contains(userId);
+    }
+
+    /**
+     * 使用户的黑名单缓存失效，下次查询时重新加载
+     */
+    public void invalidate(String ownerId) {
+        cache.remove(ownerId);
+    }
+
+    /**
+     * 黑名单变更通知，消息内容为黑名单所属的用户ID
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String ownerId = new String(message.getBody(), StandardCharsets.UTF_8).replace("\"", "");
+        logger.debug("用户[{}]黑名单变更，清除本地缓存", ownerId);
+        invalidate(ownerId);
+    }
+
+    private static class Entry {
+        private final Set<String> blocked;
+        // 加载时写入的布隆过滤器，过滤器重建后旧条目仍使用原过滤器，不会漏判
+        private final PairBloomFilter filter;
+        private final long expireAt;
+
+        Entry(Set<String> blocked, PairBloomFilter filter, long expireAt) {
+            this.blocked = blocked;
+            this.filter = filter;
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.mi.im.netty.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * 本Netty节点标识，格式为 ip:port，用于集群路由和节点队列命名
+ */
+@Component
+public class LocalNode {
+    private static final Logger logger = LoggerFactory.getLogger(LocalNode.class);
+
+    @Value("${netty.port:8080}")
+    private int port;
+
+    // 未配置时使用本机IP
+    @Value("${netty.host:}")
+    private String host;
+
+    private String nodeId;
+
+    @PostConstruct
+    public void init() {
+        if (host == null || host.isEmpty()) {
+            try {
+                host = InetAddress.getLocalHost().getHostAddress();
+            } catch (UnknownHostException e) {
+                logger.error("获取本机地址失败", e);
+                host = "127.0.0.1";
+            }
+        }
+        nodeId = host + ":" + port;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+}
@@ -0,0 +1,164 @@
+package com.mi.im.netty.cluster;
+
+import com.mi.im.common.registry.NodeRecord;
+import com.mi.im.netty.codec.MessageFrameCodec;
+import com.mi.im.netty.service.MessageDispatchExecutor;
+import com.mi.im.netty.service.MessagePersistPublisher;
+import com.mi.im.netty.session.ConnectionTracker;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 节点排空
+ * 滚动发布时按以下顺序下线，避免全部连接在同一时刻涌向其他节点：
+ * 1. 持有本节点的路由清理锁，再从Zookeeper注销，网关不再分配新连接；
+ * 2. 关闭监听端口，不再接受新连接；
+ * 3. 按配置速率分批向客户端发送1012关闭帧，原因字段携带建议重连的节点
+ *    （包括未认证的连接；尚未完成WebSocket握手的连接直接关闭）；
+ * 4. 等待分发队列和持久化队列清空，最后清理仍指向本节点的路由
+ */
+@Component
+public class NodeDrainer {
+    private static final Logger logger = LoggerFactory.getLogger(NodeDrainer.class);
+
+    // 1012 Service Restart
+    public static final int CLOSE_SERVICE_RESTART = 1012;
+
+    // 每批的间隔（毫秒）
+    private static final long WAVE_INTERVAL = 100;
+
+    // 每秒通知重连的连接数
+    @Value("${netty.drain.rate:500}")
+    private int rate;
+
+    // 通知阶段的最长时间（毫秒），连接数多时自动加大每批数量
+    @Value("${netty.drain.timeout:60000}")
+    private long timeout;
+
+    // 等待分发和持久化队列清空的最长时间（毫秒）
+    @Value("${netty.drain.flush-timeout:10000}")
+    private long flushTimeout;
+
+    @Autowired
+    private NodeRegistry nodeRegistry;
+
+    @Autowired
+    private NodeRouteWatcher nodeRouteWatcher;
+
+    @Autowired
+    private UserRouteTable userRouteTable;
+
+    @Autowired
+    private ConnectionTracker connectionTracker;
+
+    @Autowired
+    private LocalNode localNode;
+
+    @Autowired
+    private MessageDispatchExecutor messageDispatchExecutor;
+
+    @Autowired
+    private MessagePersistPublisher messagePersistPublisher;
+
+    private volatile boolean draining;
+
+    /**
+     * 排空本节点，阻塞到排空结束
+     * @param serverChannels 监听端口的服务端通道
+     */
+    public void drain(List<Channel> serverChannels) throws InterruptedException {
+        draining = true;
+        long start = System.currentTimeMillis();
+        logger.info("节点开始排空");
+
+        // 1. 先持有清理锁再注销，其他节点不会因注销通知清理本节点仍在服务的路由
+        userRouteTable.holdPurge(timeout + flushTimeout + 60000);
+        nodeRegistry.deregister();
+
+        // 2. 不再接受新连接
+        for (Channel channel : serverChannels) {
+            channel.close().awaitUninterruptibly();
+        }
+
+        // 3. 分批通知重连
+        List<Channel> channels = connectionTracker.snapshot();
+        List<NodeRecord> targets = nodeRouteWatcher.liveNodes();
+        targets.removeIf(node -> localNode.getNodeId().equals(node.getAddress()));
+        long[] assigned = new long[targets.size()];
+
+        int waveSize = Math.max(1, (int) (rate * WAVE_INTERVAL / 1000));
+        long waves = Math.max(1, timeout / WAVE_INTERVAL);
+        waveSize = (int) Math.max(waveSize, (channels.size() + waves - 1) / waves);
+        int notified = 0;
+        Iterator<Channel> iterator = channels.iterator();
+        while (iterator.hasNext()) {
+            for (int i = 0; i < waveSize && iterator.hasNext(); i++) {
+                Channel channel = iterator.next();
+                if (!channel.isActive()) {
+                    continue;
+                }
+                if (channel.attr(MessageFrameCodec.PROTOCOL).get() == null) {
+                    // 仍在HTTP握手阶段，无法发送关闭帧
+                    channel.close();
+                    continue;
+                }
+                String target = pickTarget(targets, assigned);
+                String reason = target == null ? "reconnect" : "reconnect=" + target;
+                // 关闭帧排在已写出的消息之后，待发送的消息先写完
+                channel.writeAndFlush(new CloseWebSocketFrame(CLOSE_SERVICE_RESTART, reason))
+                        .addListener(ChannelFutureListener.CLOSE);
+                notified++;
+            }
+            if (iterator.hasNext()) {
+                Thread.sleep(WAVE_INTERVAL);
+            }
+        }
+        logger.info("已通知{}个连接重连，每批{}个，耗时{}ms", notified, waveSize, System.currentTimeMillis() - start);
+
+        // 4. 等待断开连接的清理任务和待持久化消息处理完
+        long deadline = System.currentTimeMillis() + flushTimeout;
+        while (System.currentTimeMillis() < deadline
+                && (messageDispatchExecutor.pendingTasks() > 0 || messagePersistPublisher.pending() > 0)) {
+            Thread.sleep(50);
+        }
+        if (messageDispatchExecutor.pendingTasks() > 0 || messagePersistPublisher.pending() > 0) {
+            logger.warn("排空超时，分发队列剩余{}，持久化队列剩余{}",
+                    messageDispatchExecutor.pendingTasks(), messagePersistPublisher.pending());
+        }
+        userRouteTable.releaseLocal();
+        logger.info("节点排空完成，耗时{}ms", System.currentTimeMillis() - start);
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    // 按 (已发布连接数 + 本次已分配数) / 权重 选择最空的节点
+    private static String pickTarget(List<NodeRecord> targets, long[] assigned) {
+        int best = -1;
+        double bestLoad = Double.MAX_VALUE;
+        for (int i = 0; i < targets.size(); i++) {
+            NodeRecord node = targets.get(i);
+            double load = (double) (node.getConnections() + assigned[i] + 1)
+                    / (node.getWeight() > 0 ? node.getWeight() : 100);
+            if (load < bestLoad) {
+                bestLoad = load;
+                best = i;
+            }
+        }
+        if (best < 0) {
+            return null;
+        }
+        assigned[best]++;
+        return targets.get(best).getAddress();
+    }
+}
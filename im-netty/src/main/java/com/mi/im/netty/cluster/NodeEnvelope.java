@@ -0,0 +1,23 @@
+package com.mi.im.netty.cluster;
+
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 节点间投递信封：一条消息及其在目标节点上的全部接收者
+ */
+@Data
+public class NodeEnvelope implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // 来源节点
+    private String sourceNode;
+
+    // 消息的JSON，正文为发送者的原始内容
+    private String payload;
+
+    // 目标节点上的接收者ID
+    private List<String> receiverIds;
+}
@@ -0,0 +1,114 @@
+package com.mi.im.netty.cluster;
+
+import com.alibaba.fastjson.JSON;
+import com.mi.im.netty.codec.MessageEnvelope;
+import com.mi.im.netty.handler.SlowConsumerHandler;
+import com.mi.im.netty.metrics.NettyMetrics;
+import com.mi.im.netty.service.OfflineInbox;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 节点消息总线：向目标节点的专属队列发送投递信封
+ * 每个目标节点只发送一条消息，由目标节点在本地扇出给所有接收者。
+ * 以mandatory方式发布：目标节点已宕机、其自动删除的队列已不存在时，broker退回信封，
+ * 退回的消息写入接收者的离线收件箱，并从接收者的路由中移除该节点
+ */
+@Component
+public class NodeMessageBus {
+    private static final Logger logger = LoggerFactory.getLogger(NodeMessageBus.class);
+
+    @Value("${im.cluster.exchange:im.node}")
+    private String exchange;
+
+    @Autowired
+    private ConnectionFactory connectionFactory;
+
+    @Autowired
+    private LocalNode localNode;
+
+    @Autowired
+    private OfflineInbox offlineInbox;
+
+    @Autowired
+    private UserRouteTable userRouteTable;
+
+    @Autowired
+    private NettyMetrics metrics;
+
+    // 独立的模板，退回回调只处理节点信封（每个RabbitTemplate只能设置一个退回回调）
+    private RabbitTemplate rabbitTemplate;
+    // 退回回调在AMQP连接线程上执行，Redis操作转到单独的线程
+    private final ExecutorService returnExecutor = Executors.newSingleThreadExecutor();
+
+    @PostConstruct
+    public void init() {
+        rabbitTemplate = new RabbitTemplate(connectionFactory);
+        rabbitTemplate.setMandatory(true);
+        rabbitTemplate.setReturnCallback(this::onReturned);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        returnExecutor.shutdown();
+    }
+
+    /**
+     * 发送消息到指定节点，由该节点投递给receiverIds
+     * @return broker是否已接收；无法路由到目标节点的信封随后由退回回调转存离线
+     */
+    public boolean publish(String nodeId, MessageEnvelope message, List<String> receiverIds) {
+        NodeEnvelope envelope = new NodeEnvelope();
+        envelope.setSourceNode(localNode.getNodeId());
+        envelope.setPayload(message.toJson());
+        envelope.setReceiverIds(receiverIds);
+        try {
+            rabbitTemplate.convertAndSend(exchange, nodeId, JSON.toJSONString(envelope));
+            return true;
+        } catch (Exception e) {
+            logger.error("发送消息到节点[{}]失败: {}", nodeId, e.getMessage());
+            return false;
+        }
+    }
+
+    private void onReturned(Message returned, int replyCode, String replyText, String returnedExchange,
+                            String nodeId) {
+        metrics.incrementNodeReturned();
+        returnExecutor.execute(() -> {
+            try {
+                NodeEnvelope envelope = JSON.parseObject(
+                        new String(returned.getBody(), StandardCharsets.UTF_8), NodeEnvelope.class);
+                MessageEnvelope message = MessageEnvelope.parseJson(
+                        envelope.getPayload().getBytes(StandardCharsets.UTF_8));
+                logger.warn("节点[{}]的队列不存在（{}），{}个接收者的消息转存离线",
+                        nodeId, replyText, envelope.getReceiverIds().size());
+                if (SlowConsumerHandler.isContentMessage(message.header())) {
+                    offlineInbox.storeAll(envelope.getReceiverIds(), message);
+                }
+                userRouteTable.removeNode(nodeId, envelope.getReceiverIds());
+            } catch (Exception e) {
+                logger.error("处理节点[{}]退回的消息失败", nodeId, e);
+            }
+        });
+    }
+
+    /**
+     * 节点专属队列名
+     */
+    public static String queueName(String nodeId) {
+        return "im.node." + nodeId;
+    }
+}
@@ -0,0 +1,36 @@
+package com.mi.im.netty.cluster;
+
+import com.alibaba.fastjson.JSON;
+import com.mi.im.netty.codec.MessageEnvelope;
+import com.mi.im.netty.service.MessageBroadcastService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 监听本节点专属队列，将其他节点转发过来的消息投递给本地连接
+ */
+@Component
+public class NodeMessageListener {
+    private static final Logger logger = LoggerFactory.getLogger(NodeMessageListener.class);
+
+    @Autowired
+    private MessageBroadcastService messageBroadcastService;
+
+    @RabbitListener(queues = "#{nodeQueue.name}")
+    public void onMessage(String payload) {
+        NodeEnvelope envelope = JSON.parseObject(payload, NodeEnvelope.class);
+        // 只解析路由字段，正文原样转发给本地接收者
+        MessageEnvelope message = MessageEnvelope.parseJson(envelope.getPayload().getBytes(StandardCharsets.UTF_8));
+        int delivered = messageBroadcastService.deliverLocal(message, envelope.getReceiverIds());
+        if (delivered < envelope.getReceiverIds().size()) {
+            // 接收者在转发途中已下线，消息已写入其离线收件箱
+            logger.debug("节点[{}]转发的消息有{}个接收者已不在本节点", envelope.getSourceNode(),
+                    envelope.getReceiverIds().size() - delivered);
+        }
+    }
+}
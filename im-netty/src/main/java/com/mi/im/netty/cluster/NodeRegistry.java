@@ -0,0 +1,263 @@
+package com.mi.im.netty.cluster;
+
+import com.mi.im.common.registry.NodeRecord;
+import com.mi.im.common.registry.NodeRecordCodec;
+import com.mi.im.netty.session.ConnectionTracker;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 节点注册中心
+ * 在Zookeeper注册路径下以节点ID创建临时节点，数据为 {@link NodeRecord} 的紧凑编码；
+ * 连接数在本地用LongAdder计数，按固定间隔发布，变化超过阈值时提前发布（两次发布之间有最小间隔），
+ * 会话过期重连后自动重新注册
+ */
+@Component
+public class NodeRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(NodeRegistry.class);
+
+    @Value("${zookeeper.address:localhost:2181}")
+    private String zookeeperAddress;
+
+    @Value("${netty.server.path:/im/netty/servers}")
+    private String serverPath;
+
+    // 容量权重
+    @Value("${netty.registry.weight:100}")
+    private int weight;
+
+    // 定时发布间隔（毫秒）
+    @Value("${netty.load.publish-interval:5000}")
+    private long publishInterval;
+
+    // 连接数相对上次发布变化超过该值时提前发布
+    @Value("${netty.load.publish-threshold:100}")
+    private long publishThreshold;
+
+    // 两次发布之间的最小间隔（毫秒）
+    @Value("${netty.load.min-publish-gap:500}")
+    private long minPublishGap;
+
+    // 事件循环延迟探测间隔（毫秒）
+    @Value("${netty.load.lag-probe-interval:1000}")
+    private long lagProbeInterval;
+
+    @Autowired
+    private LocalNode localNode;
+
+    @Autowired
+    private ConnectionTracker connectionTracker;
+
+    @Autowired
+    private NodeRouteWatcher nodeRouteWatcher;
+
+    private final LongAdder connections = new LongAdder();
+    private final AtomicLong maxLagNanos = new AtomicLong();
+    private final AtomicBoolean publishScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("im-node-registry", true));
+
+    private volatile CuratorFramework client;
+    private EventLoopGroup workerGroup;
+    private volatile String nodePath;
+    private volatile long lastPublishedConnections;
+    private volatile long lastPublishTime;
+
+    /**
+     * 注册本节点并开始发布负载
+     */
+    public void start(EventLoopGroup workerGroup) throws Exception {
+        this.workerGroup = workerGroup;
+        client = CuratorFrameworkFactory.builder()
+                .connectString(zookeeperAddress)
+                .retryPolicy(new ExponentialBackoffRetry(1000, 3))
+                .build();
+        client.start();
+
+        nodePath = serverPath + "/" + localNode.getNodeId();
+        register();
+        // 会话过期后临时节点会被删除，重连后重新注册
+        client.getConnectionStateListenable().addListener((c, state) -> {
+            if (state == ConnectionState.RECONNECTED) {
+                scheduler.execute(this::reregister);
+            }
+        });
+
+        // 监听其他节点下线，清理其用户路由
+        nodeRouteWatcher.start(client, serverPath);
+
+        scheduler.scheduleWithFixedDelay(this::probeEventLoopLag, lagProbeInterval, lagProbeInterval,
+                TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::publish, publishInterval, publishInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private void register() throws Exception {
+        byte[] data = NodeRecordCodec.encode(snapshot());
+        try {
+            client.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL).forPath(nodePath, data);
+        } catch (KeeperException.NodeExistsException e) {
+            // 进程快速重启时上一个会话的临时节点可能还未过期
+            client.delete().quietly().forPath(nodePath);
+            client.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL).forPath(nodePath, data);
+        }
+        logger.info("注册到Zookeeper成功: {}", nodePath);
+    }
+
+    private void reregister() {
+        try {
+            if (nodePath != null && client.checkExists().forPath(nodePath) == null) {
+                register();
+            }
+        } catch (Exception e) {
+            logger.error("重新注册到Zookeeper失败", e);
+        }
+    }
+
+    /**
+     * 新连接建立
+     */
+    public void incrementConnections() {
+        connections.increment();
+        checkThreshold();
+    }
+
+    /**
+     * 连接断开
+     */
+    public void decrementConnections() {
+        connections.decrement();
+        checkThreshold();
+    }
+
+    /**
+     * 当前连接数
+     */
+    public long getConnections() {
+        return Math.max(0, connections.sum());
+    }
+
+    // 变化超过阈值时安排一次提前发布，已安排的发布未执行前不重复安排
+    private void checkThreshold() {
+        if (nodePath == null || Math.abs(connections.sum() - lastPublishedConnections) < publishThreshold) {
+            return;
+        }
+        if (publishScheduled.compareAndSet(false, true)) {
+            long delay = Math.max(0, lastPublishTime + minPublishGap - System.currentTimeMillis());
+            scheduler.schedule(this::publish, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void publish() {
+        publishScheduled.set(false);
+        CuratorFramework client = this.client;
+        if (nodePath == null || client == null || !client.getZookeeperClient().isConnected()) {
+            return;
+        }
+        NodeRecord record = snapshot();
+        try {
+            client.setData().forPath(nodePath, NodeRecordCodec.encode(record));
+            lastPublishedConnections = record.getConnections();
+            lastPublishTime = record.getTimestamp();
+        } catch (KeeperException.NoNodeException e) {
+            reregister();
+        } catch (Exception e) {
+            logger.error("发布节点负载失败: {}", e.getMessage());
+        }
+    }
+
+    // 向每个worker事件循环提交一个空任务，从提交到执行的时间即为排队延迟
+    private void probeEventLoopLag() {
+        if (workerGroup == null) {
+            return;
+        }
+        for (EventExecutor executor : workerGroup) {
+            if (executor.isShuttingDown()) {
+                continue;
+            }
+            long submitted = System.nanoTime();
+            executor.execute(() -> {
+                long lag = System.nanoTime() - submitted;
+                maxLagNanos.accumulateAndGet(lag, Math::max);
+            });
+        }
+    }
+
+    private NodeRecord snapshot() {
+        NodeRecord record = new NodeRecord();
+        record.setAddress(localNode.getNodeId());
+        record.setConnections(getConnections());
+        record.setEventLoopLagMicros(TimeUnit.NANOSECONDS.toMicros(maxLagNanos.getAndSet(0)));
+        record.setCpuPermille(cpuPermille());
+        record.setPendingOutboundBytes(connectionTracker.pendingOutboundBytes());
+        record.setWeight(weight);
+        record.setTimestamp(System.currentTimeMillis());
+        return record;
+    }
+
+    private static int cpuPermille() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        double load = -1;
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            load = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad();
+        }
+        if (load < 0) {
+            // 无法获取进程CPU时用系统平均负载估算
+            load = os.getSystemLoadAverage() / os.getAvailableProcessors();
+        }
+        return (int) Math.round(Math.max(0, Math.min(1, load)) * 1000);
+    }
+
+    /**
+     * 从Zookeeper注销本节点并停止发布负载，网关不再分配新连接；
+     * Zookeeper客户端保持连接，节点监听继续工作
+     */
+    public void deregister() {
+        String path = nodePath;
+        nodePath = null;
+        if (path == null || client == null) {
+            return;
+        }
+        try {
+            client.delete().quietly().forPath(path);
+            logger.info("已从Zookeeper注销: {}", path);
+        } catch (Exception e) {
+            logger.warn("从Zookeeper注销失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 注销本节点并关闭Zookeeper客户端
+     */
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+        if (client == null) {
+            return;
+        }
+        deregister();
+        client.close();
+        client = null;
+    }
+}
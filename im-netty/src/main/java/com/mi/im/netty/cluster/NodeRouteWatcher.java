@@ -0,0 +1,82 @@
+package com.mi.im.netty.cluster;
+
+import com.mi.im.common.registry.NodeRecord;
+import com.mi.im.common.registry.NodeRecordCodec;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.CuratorCache;
+import org.apache.curator.framework.recipes.cache.CuratorCacheListener;
+import org.apache.curator.utils.ZKPaths;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 监听Zookeeper中的Netty节点，节点的临时节点消失时清理其路由
+ */
+@Component
+public class NodeRouteWatcher {
+    private static final Logger logger = LoggerFactory.getLogger(NodeRouteWatcher.class);
+
+    @Autowired
+    private UserRouteTable userRouteTable;
+
+    private CuratorCache cache;
+    private String serverPath;
+    // 清理涉及大量Redis操作，不在Curator事件线程中执行
+    private final ExecutorService purgeExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * 开始监听节点注册路径
+     */
+    public void start(CuratorFramework client, String serverPath) {
+        this.serverPath = serverPath;
+        cache = CuratorCache.build(client, serverPath);
+        cache.listenable().addListener(CuratorCacheListener.builder()
+                .forDeletes(data -> {
+                    if (serverPath.equals(data.getPath())) {
+                        return;
+                    }
+                    // 注册节点以节点ID命名
+                    String nodeId = ZKPaths.getNodeFromPath(data.getPath());
+                    logger.info("Netty节点下线: {}", nodeId);
+                    purgeExecutor.execute(() -> userRouteTable.purgeNode(nodeId));
+                })
+                .build());
+        cache.start();
+    }
+
+    /**
+     * 当前已注册的节点记录（来自本地缓存）
+     */
+    public List<NodeRecord> liveNodes() {
+        List<NodeRecord> nodes = new ArrayList<>();
+        if (cache == null) {
+            return nodes;
+        }
+        cache.stream()
+                .filter(data -> !serverPath.equals(data.getPath()))
+                .forEach(data -> {
+                    try {
+                        nodes.add(NodeRecordCodec.decode(data.getData()));
+                    } catch (IllegalArgumentException e) {
+                        logger.warn("无法解析节点注册记录: {}", data.getPath());
+                    }
+                });
+        return nodes;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (cache != null) {
+            cache.close();
+        }
+        purgeExecutor.shutdown();
+    }
+}
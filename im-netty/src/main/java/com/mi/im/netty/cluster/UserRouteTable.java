@@ -0,0 +1,269 @@
+package com.mi.im.netty.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 集群用户路由表：用户ID -> 所连接的Netty节点集合
+ * 保存在Redis哈希中，值为逗号分隔的节点ID。用户在某节点上的第一个设备认证时加入该节点，
+ * 该节点上的最后一个设备下线时移除该节点，集合为空时删除；
+ * 同时按节点维护用户集合，节点宕机时只需清理该节点上的用户。
+ * 单用户查询走本地TTL缓存，减少私聊消息的Redis往返
+ */
+@Component
+public class UserRouteTable {
+    private static final Logger logger = LoggerFactory.getLogger(UserRouteTable.class);
+
+    // 路由值是逗号分隔的节点ID集合：同一用户的多个设备可能连在不同节点上
+    private static final String REMOVE_NODE_FUNCTION =
+            "local function removeNode(key, userId, nodeId) "
+                    + "local nodes = redis.call('HGET', key, userId) "
+                    + "if not nodes then return 0 end "
+                    + "local rest = {} "
+                    + "local found = 0 "
+                    + "for node in string.gmatch(nodes, '[^,]+') do "
+                    + "if node == nodeId then found = 1 else rest[#rest + 1] = node end end "
+                    + "if found == 0 then return 0 end "
+                    + "if #rest == 0 then redis.call('HDEL', key, userId) "
+                    + "else redis.call('HSET', key, userId, table.concat(rest, ',')) end "
+                    + "return 1 end ";
+
+    // 把本节点加入用户的节点集合
+    private static final DefaultRedisScript<Long> BIND_SCRIPT = new DefaultRedisScript<>(
+            "local nodes = redis.call('HGET', KEYS[1], ARGV[1]) "
+                    + "if not nodes then redis.call('HSET', KEYS[1], ARGV[1], ARGV[2]) return 1 end "
+                    + "if string.find(',' .. nodes .. ',', ',' .. ARGV[2] .. ',', 1, true) then return 0 end "
+                    + "redis.call('HSET', KEYS[1], ARGV[1], nodes .. ',' .. ARGV[2]) "
+                    + "return 1", Long.class);
+
+    // 只从集合中移除本节点，用户在其他节点上的连接不受影响
+    private static final DefaultRedisScript<Long> UNBIND_SCRIPT = new DefaultRedisScript<>(
+            REMOVE_NODE_FUNCTION + "return removeNode(KEYS[1], ARGV[1], ARGV[2])", Long.class);
+
+    // 批量从用户的节点集合中移除宕机节点
+    private static final DefaultRedisScript<Long> PURGE_SCRIPT = new DefaultRedisScript<>(
+            REMOVE_NODE_FUNCTION
+                    + "local n = 0 "
+                    + "for i = 2, #ARGV do n = n + removeNode(KEYS[1], ARGV[i], ARGV[1]) end "
+                    + "return n", Long.class);
+
+    private static final int PURGE_BATCH = 500;
+
+    @Value("${im.route.key:im:route:user}")
+    private String routeKey;
+
+    @Value("${im.route.node-key-prefix:im:route:node:}")
+    private String nodeKeyPrefix;
+
+    // 本地缓存有效期（毫秒）
+    @Value("${im.route.cache-ttl:5000}")
+    private long cacheTtl;
+
+    @Value("${im.route.cache-size:100000}")
+    private int cacheSize;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private LocalNode localNode;
+
+    private final Map<String, CachedRoute> cache = new ConcurrentHashMap<>();
+
+    /**
+     * 记录用户连接到本节点
+     */
+    public void bind(String userId) {
+        stringRedisTemplate.execute(BIND_SCRIPT, Collections.singletonList(routeKey), userId, localNode.getNodeId());
+        stringRedisTemplate.opsForSet().add(nodeKey(localNode.getNodeId()), userId);
+        cache.remove(userId);
+    }
+
+    /**
+     * 用户在本节点上的设备已全部下线
+     */
+    public void unbind(String userId) {
+        stringRedisTemplate.execute(UNBIND_SCRIPT, Collections.singletonList(routeKey), userId, localNode.getNodeId());
+        stringRedisTemplate.opsForSet().remove(nodeKey(localNode.getNodeId()), userId);
+        cache.remove(userId);
+    }
+
+    /**
+     * 查询用户所在的全部节点（先查本地缓存），不在线返回空列表
+     */
+    public List<String> lookup(String userId) {
+        long now = System.currentTimeMillis();
+        CachedRoute cached = cache.get(userId);
+        if (cached != null && cached.expireAt > now) {
+            return cached.nodeIds;
+        }
+        List<String> nodeIds = parseNodes((String) stringRedisTemplate.opsForHash().get(routeKey, userId));
+        if (cache.size() >= cacheSize) {
+            // 超出容量时整体清空，缓存只是加速手段，短暂失效不影响正确性
+            cache.clear();
+        }
+        cache.put(userId, new CachedRoute(nodeIds, now + cacheTtl));
+        return nodeIds;
+    }
+
+    /**
+     * 使本地缓存中的路由失效（转发目标已不在该节点时调用）
+     */
+    public void invalidate(String userId) {
+        cache.remove(userId);
+    }
+
+    /**
+     * 批量查询用户所在节点，一次往返
+     * @return 节点ID -> 该节点上的用户ID；连在多个节点上的用户出现在每个节点的分组中，
+     *         不在线的用户放在key为null的分组中
+     */
+    public Map<String, List<String>> groupByNode(List<String> userIds) {
+        Map<String, List<String>> result = new HashMap<>();
+        if (userIds.isEmpty()) {
+            return result;
+        }
+        List<Object> nodes = stringRedisTemplate.opsForHash().multiGet(routeKey, new ArrayList<>(userIds));
+        for (int i = 0; i < userIds.size(); i++) {
+            List<String> nodeIds = parseNodes((String) nodes.get(i));
+            if (nodeIds.isEmpty()) {
+                result.computeIfAbsent(null, key -> new ArrayList<>()).add(userIds.get(i));
+            }
+            for (String nodeId : nodeIds) {
+                result.computeIfAbsent(nodeId, key -> new ArrayList<>()).add(userIds.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 从一批用户的路由中移除指定节点（发往该节点的消息因队列不存在被退回时调用）
+     * 节点在Zookeeper中的临时节点要等会话超时才消失，在此之前只清理已确认失效的这些路由
+     */
+    public void removeNode(String nodeId, List<String> userIds) {
+        List<String> args = new ArrayList<>(userIds.size() + 1);
+        args.add(nodeId);
+        args.addAll(userIds);
+        purgeBatch(args);
+        for (String userId : userIds) {
+            cache.remove(userId);
+        }
+    }
+
+    /**
+     * 清理宕机节点上的全部路由
+     * 多个存活节点会同时收到下线通知，通过Redis锁保证只有一个节点执行清理
+     */
+    public void purgeNode(String nodeId) {
+        if (nodeId.equals(localNode.getNodeId())) {
+            return;
+        }
+        Boolean locked = stringRedisTemplate.opsForValue()
+                .setIfAbsent(purgeLockKey(nodeId), localNode.getNodeId(), 60, TimeUnit.SECONDS);
+        if (!Boolean.TRUE.equals(locked)) {
+            return;
+        }
+        try {
+            long purged = purgeRoutes(nodeId);
+            if (purged >= 0) {
+                logger.info("节点[{}]已下线，清理路由{}条", nodeId, purged);
+            }
+        } finally {
+            // 同一节点ID重启后再次下线时需要重新清理
+            stringRedisTemplate.delete(purgeLockKey(nodeId));
+        }
+    }
+
+    /**
+     * 本节点排空期间持有清理锁，其他节点收到本节点的注销通知时不清理路由，
+     * 仍连在本节点上的用户继续正常收消息，直到被通知重连
+     */
+    public void holdPurge(long millis) {
+        stringRedisTemplate.opsForValue().set(purgeLockKey(localNode.getNodeId()), localNode.getNodeId(),
+                millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 排空结束：清理仍指向本节点的路由并释放清理锁
+     */
+    public void releaseLocal() {
+        String nodeId = localNode.getNodeId();
+        long purged = purgeRoutes(nodeId);
+        stringRedisTemplate.delete(purgeLockKey(nodeId));
+        logger.info("本节点排空结束，清理剩余路由{}条", purged);
+    }
+
+    // 删除仍指向该节点的路由，失败时返回-1
+    private long purgeRoutes(String nodeId) {
+        long purged = 0;
+        String nodeKey = nodeKey(nodeId);
+        List<String> args = new ArrayList<>(PURGE_BATCH + 1);
+        args.add(nodeId);
+        try (Cursor<String> cursor = stringRedisTemplate.opsForSet()
+                .scan(nodeKey, ScanOptions.scanOptions().count(PURGE_BATCH).build())) {
+            while (cursor.hasNext()) {
+                args.add(cursor.next());
+                if (args.size() > PURGE_BATCH) {
+                    purged += purgeBatch(args);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("清理节点[{}]路由失败", nodeId, e);
+            return -1;
+        }
+        if (args.size() > 1) {
+            purged += purgeBatch(args);
+        }
+        stringRedisTemplate.delete(nodeKey);
+        cache.clear();
+        return purged;
+    }
+
+    private long purgeBatch(List<String> args) {
+        Long count = stringRedisTemplate.execute(PURGE_SCRIPT, Collections.singletonList(routeKey),
+                args.toArray());
+        args.subList(1, args.size()).clear();
+        return count == null ? 0 : count;
+    }
+
+    private static List<String> parseNodes(String value) {
+        if (value == null || value.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(value.split(","));
+    }
+
+    private String nodeKey(String nodeId) {
+        return nodeKeyPrefix + nodeId;
+    }
+
+    private String purgeLockKey(String nodeId) {
+        return nodeKey(nodeId) + ":purging";
+    }
+
+    private static class CachedRoute {
+        private final List<String> nodeIds;
+        private final long expireAt;
+
+        CachedRoute(List<String> nodeIds, long expireAt) {
+            this.nodeIds = nodeIds;
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.mi.im.netty.codec;
+
+import com.mi.im.common.model.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.CorruptedFrameException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+/**
+ * 二进制消息编解码
+ *
+ * 帧格式（v1）:
+ * <pre>
+ * byte    版本号
+ * byte    消息类型标签（MessageConstants中的类型值，0xFF表示空）
+ * varint  字段存在位图
+ * varint  布尔标志位图
+ * ...     按位图顺序依次写入存在的字段
+ * </pre>
+ * ID字段为纯数字时以varint写入，否则以UTF-8字符串写入；字符串均为varint长度前缀。
+ * 路由字段（消息ID至发送时间）在前，正文字段（内容至设备类型）在后，转发时正文可整段复制
+ */
+public final class BinaryMessageCodec {
+
+    public static final byte VERSION = 1;
+
+    private static final int TYPE_NULL = 0xFF;
+
+    // 字段存在位
+    private static final int F_MESSAGE_ID = 1;
+    private static final int F_SENDER_ID = 1 << 1;
+    private static final int F_RECEIVER_ID = 1 << 2;
+    private static final int F_GROUP_ID = 1 << 3;
+    private static final int F_STATUS = 1 << 4;
+    private static final int F_SEND_TIME = 1 << 5;
+    private static final int F_CONTENT = 1 << 6;
+    private static final int F_FILE_URL = 1 << 7;
+    private static final int F_FILE_SIZE = 1 << 8;
+    private static final int F_FILE_TYPE = 1 << 9;
+    private static final int F_DEVICE_ID = 1 << 10;
+    private static final int F_DEVICE_TYPE = 1 << 11;
+    private static final int F_IS_GROUP = 1 << 12;
+    private static final int F_IS_OFFLINE = 1 << 13;
+    private static final int F_IS_BLOCKED = 1 << 14;
+
+    // 正文字段（内容至设备类型），位于路由字段之后，可整段原样转发
+    static final int BODY_FIELDS = F_CONTENT | F_FILE_URL | F_FILE_SIZE | F_FILE_TYPE | F_DEVICE_ID | F_DEVICE_TYPE;
+
+    // 布尔标志位
+    private static final int B_IS_GROUP = 1;
+    private static final int B_IS_OFFLINE = 1 << 1;
+    private static final int B_IS_BLOCKED = 1 << 2;
+
+    // ID编码方式
+    private static final byte ID_NUMERIC = 0;
+    private static final byte ID_STRING = 1;
+
+    private BinaryMessageCodec() {
+    }
+
+    /**
+     * 将消息编码写入ByteBuf
+     */
+    public static void encode(Message message, ByteBuf out) {
+        writeHeader(message, bodyFields(message), out);
+        writeBody(message, out);
+    }
+
+    /**
+     * 从ByteBuf解码消息
+     */
+    public static Message decode(ByteBuf in) {
+        Message message = new Message();
+        int fields = readHeader(in, message);
+        readBody(in, fields, message);
+        return message;
+    }
+
+    /**
+     * 正文字段的存在位
+     */
+    static int bodyFields(Message message) {
+        int fields = 0;
+        if (message.getContent() != null) fields |= F_CONTENT;
+        if (message.getFileUrl() != null) fields |= F_FILE_URL;
+        if (message.getFileSize() != null) fields |= F_FILE_SIZE;
+        if (message.getFileType() != null) fields |= F_FILE_TYPE;
+        if (message.getDeviceId() != null) fields |= F_DEVICE_ID;
+        if (message.getDeviceType() != null) fields |= F_DEVICE_TYPE;
+        return fields;
+    }
+
+    /**
+     * 写出版本、类型、位图和路由字段（消息ID至发送时间）
+     * @param bodyFields 随后写出的正文字段的存在位
+     */
+    static void writeHeader(Message message, int bodyFields, ByteBuf out) {
+        int fields = bodyFields & BODY_FIELDS;
+        int flags = 0;
+        if (message.getMessageId() != null) fields |= F_MESSAGE_ID;
+        if (message.getSenderId() != null) fields |= F_SENDER_ID;
+        if (message.getReceiverId() != null) fields |= F_RECEIVER_ID;
+        if (message.getGroupId() != null) fields |= F_GROUP_ID;
+        if (message.getStatus() != null) fields |= F_STATUS;
+        if (message.getSendTime() != null) fields |= F_SEND_TIME;
+        if (message.getIsGroupMessage() != null) {
+            fields |= F_IS_GROUP;
+            if (message.getIsGroupMessage()) flags |= B_IS_GROUP;
+        }
+        if (message.getIsOffline() != null) {
+            fields |= F_IS_OFFLINE;
+            if (message.getIsOffline()) flags |= B_IS_OFFLINE;
+        }
+        if (message.getIsBlocked() != null) {
+            fields |= F_IS_BLOCKED;
+            if (message.getIsBlocked()) flags |= B_IS_BLOCKED;
+        }
+
+        out.writeByte(VERSION);
+        out.writeByte(typeTag(message.getMessageType()));
+        writeVarInt(out, fields);
+        writeVarInt(out, flags);
+
+        if ((fields & F_MESSAGE_ID) != 0) writeId(out, message.getMessageId());
+        if ((fields & F_SENDER_ID) != 0) writeId(out, message.getSenderId());
+        if ((fields & F_RECEIVER_ID) != 0) writeId(out, message.getReceiverId());
+        if ((fields & F_GROUP_ID) != 0) writeId(out, message.getGroupId());
+        if ((fields & F_STATUS) != 0) writeVarInt(out, message.getStatus());
+        if ((fields & F_SEND_TIME) != 0) writeVarLong(out, message.getSendTime().getTime());
+    }
+
+    static void writeBody(Message message, ByteBuf out) {
+        if (message.getContent() != null) writeString(out, message.getContent());
+        if (message.getFileUrl() != null) writeString(out, message.getFileUrl());
+        if (message.getFileSize() != null) writeVarLong(out, message.getFileSize());
+        if (message.getFileType() != null) writeString(out, message.getFileType());
+        if (message.getDeviceId() != null) writeString(out, message.getDeviceId());
+        if (message.getDeviceType() != null) writeString(out, message.getDeviceType());
+    }
+
+    /**
+     * 读取版本、类型、位图和路由字段，读完后readerIndex位于正文起始位置
+     * @return 字段存在位图
+     */
+    static int readHeader(ByteBuf in, Message message) {
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new CorruptedFrameException("不支持的协议版本: " + version);
+        }
+        int type = in.readUnsignedByte();
+        message.setMessageType(type == TYPE_NULL ? null : type);
+        int fields = readVarInt(in);
+        int flags = readVarInt(in);
+
+        if ((fields & F_MESSAGE_ID) != 0) message.setMessageId(readId(in));
+        if ((fields & F_SENDER_ID) != 0) message.setSenderId(readId(in));
+        if ((fields & F_RECEIVER_ID) != 0) message.setReceiverId(readId(in));
+        if ((fields & F_GROUP_ID) != 0) message.setGroupId(readId(in));
+        if ((fields & F_STATUS) != 0) message.setStatus(readVarInt(in));
+        if ((fields & F_SEND_TIME) != 0) message.setSendTime(new Date(readVarLong(in)));
+        if ((fields & F_IS_GROUP) != 0) message.setIsGroupMessage((flags & B_IS_GROUP) != 0);
+        if ((fields & F_IS_OFFLINE) != 0) message.setIsOffline((flags & B_IS_OFFLINE) != 0);
+        if ((fields & F_IS_BLOCKED) != 0) message.setIsBlocked((flags & B_IS_BLOCKED) != 0);
+        return fields;
+    }
+
+    static void readBody(ByteBuf in, int fields, Message message) {
+        if ((fields & F_CONTENT) != 0) message.setContent(readString(in));
+        if ((fields & F_FILE_URL) != 0) message.setFileUrl(readString(in));
+        if ((fields & F_FILE_SIZE) != 0) message.setFileSize(readVarLong(in));
+        if ((fields & F_FILE_TYPE) != 0) message.setFileType(readString(in));
+        if ((fields & F_DEVICE_ID) != 0) message.setDeviceId(readString(in));
+        if ((fields & F_DEVICE_TYPE) != 0) message.setDeviceType(readString(in));
+    }
+
+    // 消息类型标签，取值与MessageConstants中的消息类型一致
+    private static int typeTag(Integer messageType) {
+        if (messageType == null) {
+            return TYPE_NULL;
+        }
+        if (messageType < 0 || messageType >= TYPE_NULL) {
+            throw new IllegalArgumentException("消息类型超出二进制协议范围: " + messageType);
+        }
+        return messageType;
+    }
+
+    private static void writeId(ByteBuf out, String id) {
+        if (isNumericId(id)) {
+            out.writeByte(ID_NUMERIC);
+            writeVarLong(out, Long.parseLong(id));
+        } else {
+            out.writeByte(ID_STRING);
+            writeString(out, id);
+        }
+    }
+
+    private static String readId(ByteBuf in) {
+        byte kind = in.readByte();
+        if (kind == ID_NUMERIC) {
+            return Long.toString(readVarLong(in));
+        }
+        if (kind == ID_STRING) {
+            return readString(in);
+        }
+        throw new CorruptedFrameException("未知的ID编码: " + kind);
+    }
+
+    // 只有能无损往返的数字串才按varint编码（不含前导0，且不超过long范围）
+    private static boolean isNumericId(String id) {
+        int length = id.length();
+        if (length == 0 || length > 18 || (length > 1 && id.charAt(0) == '0')) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeString(ByteBuf out, String value) {
+        writeVarInt(out, ByteBufUtil.utf8Bytes(value));
+        ByteBufUtil.writeUtf8(out, value);
+    }
+
+    private static String readString(ByteBuf in) {
+        int length = readVarInt(in);
+        if (length < 0 || length > in.readableBytes()) {
+            throw new CorruptedFrameException("字符串长度非法: " + length);
+        }
+        String value = in.toString(in.readerIndex(), length, StandardCharsets.UTF_8);
+        in.skipBytes(length);
+        return value;
+    }
+
+    static void writeVarInt(ByteBuf out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(ByteBuf in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new CorruptedFrameException("varint过长");
+    }
+
+    static void writeVarLong(ByteBuf out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(ByteBuf in) {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new CorruptedFrameException("varlong过长");
+    }
+}
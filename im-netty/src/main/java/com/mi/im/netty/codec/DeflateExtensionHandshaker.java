@@ -0,0 +1,106 @@
+package com.mi.im.netty.codec;
+
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionData;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionDecoder;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionEncoder;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionFilter;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionFilterProvider;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandshaker;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateServerExtensionHandshaker;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * permessage-deflate扩展协商（RFC 7692）
+ * <ul>
+ * <li>小于阈值的帧压缩收益小于Deflater的开销，直接发送</li>
+ * <li>图片、语音、视频消息的正文多为已压缩的缩略图或波形数据，不再压缩</li>
+ * <li>服务端上下文保留：每个连接常驻一个Deflater（约300KB堆外内存），压缩率高，
+ *     连接多时关闭，每条消息使用独立的压缩上下文</li>
+ * </ul>
+ * 入站帧始终解压
+ */
+public final class DeflateExtensionHandshaker implements WebSocketServerExtensionHandshaker {
+
+    private static final String SERVER_NO_CONTEXT = "server_no_context_takeover";
+
+    private final PerMessageDeflateServerExtensionHandshaker delegate;
+    private final boolean serverContextTakeover;
+
+    /**
+     * @param level 压缩级别 0-9
+     * @param minSize 小于该字节数的帧不压缩
+     * @param bypassTypes 不压缩的消息类型
+     * @param serverContextTakeover 服务端是否跨消息保留压缩上下文
+     * @param clientContextTakeover 是否允许客户端跨消息保留压缩上下文（关闭时服务端每条入站消息重建Inflater）
+     */
+    public DeflateExtensionHandshaker(int level, int minSize, Set<Integer> bypassTypes,
+                                      boolean serverContextTakeover, boolean clientContextTakeover) {
+        this.serverContextTakeover = serverContextTakeover;
+        WebSocketExtensionFilter encoderFilter = frame -> mustSkip(frame, minSize, bypassTypes);
+        WebSocketExtensionFilterProvider filters = new WebSocketExtensionFilterProvider() {
+            @Override
+            public WebSocketExtensionFilter encoderFilter() {
+                return encoderFilter;
+            }
+
+            @Override
+            public WebSocketExtensionFilter decoderFilter() {
+                return WebSocketExtensionFilter.NEVER_SKIP;
+            }
+        };
+        this.delegate = new PerMessageDeflateServerExtensionHandshaker(level, false,
+                PerMessageDeflateServerExtensionHandshaker.MAX_WINDOW_SIZE, true, !clientContextTakeover, filters);
+    }
+
+    @Override
+    public WebSocketServerExtension handshakeExtension(WebSocketExtensionData extensionData) {
+        WebSocketServerExtension negotiated = delegate.handshakeExtension(extensionData);
+        if (negotiated == null || serverContextTakeover
+                || extensionData.parameters().containsKey(SERVER_NO_CONTEXT)) {
+            return negotiated;
+        }
+        // 按客户端要求了server_no_context_takeover创建压缩器；每条消息独立压缩的数据
+        // 客户端按保留上下文的方式也能解压，响应中不声明该参数，兼容不接受未请求参数的客户端
+        Map<String, String> parameters = new HashMap<>(extensionData.parameters());
+        parameters.put(SERVER_NO_CONTEXT, null);
+        WebSocketServerExtension noContext = delegate.handshakeExtension(
+                new WebSocketExtensionData(extensionData.name(), parameters));
+        if (noContext == null) {
+            return negotiated;
+        }
+        return new WebSocketServerExtension() {
+            @Override
+            public int rsv() {
+                return noContext.rsv();
+            }
+
+            @Override
+            public WebSocketExtensionEncoder newExtensionEncoder() {
+                return noContext.newExtensionEncoder();
+            }
+
+            @Override
+            public WebSocketExtensionDecoder newExtensionDecoder() {
+                return noContext.newExtensionDecoder();
+            }
+
+            @Override
+            public WebSocketExtensionData newReponseData() {
+                return negotiated.newReponseData();
+            }
+        };
+    }
+
+    static boolean mustSkip(WebSocketFrame frame, int minSize, Set<Integer> bypassTypes) {
+        if (frame.content().readableBytes() < minSize) {
+            return true;
+        }
+        Integer messageType = MessageFrames.messageType(frame);
+        return messageType != null && bypassTypes.contains(messageType);
+    }
+}
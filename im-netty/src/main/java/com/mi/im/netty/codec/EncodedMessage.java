@@ -0,0 +1,92 @@
+package com.mi.im.netty.codec;
+
+import com.mi.im.common.model.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+/**
+ * 只编码一次、多接收者共享的消息
+ * 每种协议（JSON/二进制）最多编码一次到池化ByteBuf，向各接收者写出时只创建retainedDuplicate，
+ * 共享同一块内存。使用完毕后必须调用release()释放自身持有的引用
+ */
+public final class EncodedMessage {
+
+    private final MessageEnvelope envelope;
+    private final ByteBufAllocator allocator;
+    private ByteBuf json;
+    private ByteBuf binary;
+    private boolean released;
+
+    public EncodedMessage(Message message, ByteBufAllocator allocator) {
+        this(MessageEnvelope.of(message), allocator);
+    }
+
+    /**
+     * 与信封来源协议相同的接收者直接拼接原始正文，不解码
+     */
+    public EncodedMessage(MessageEnvelope envelope, ByteBufAllocator allocator) {
+        this.envelope = envelope;
+        this.allocator = allocator;
+    }
+
+    /**
+     * 原始信封（转存离线时使用）
+     */
+    public MessageEnvelope getEnvelope() {
+        return envelope;
+    }
+
+    /**
+     * 消息的路由字段
+     */
+    public Message getHeader() {
+        return envelope.header();
+    }
+
+    /**
+     * 按通道协商的协议生成待写出的帧，帧内容与其他接收者共享
+     */
+    public WebSocketFrame frameFor(Channel channel) {
+        if (released) {
+            throw new IllegalStateException("EncodedMessage已释放");
+        }
+        MessageFrameCodec codec = channel.attr(MessageFrameCodec.PROTOCOL).get();
+        if (codec != null && codec.isBinary()) {
+            if (binary == null) {
+                binary = allocator.buffer();
+                envelope.encodeBinary(binary);
+            }
+            return MessageFrames.binary(binary.retainedDuplicate(), envelope.header().getMessageType());
+        }
+        if (json == null) {
+            json = allocator.buffer();
+            envelope.encodeJson(json);
+        }
+        return MessageFrames.text(json.retainedDuplicate(), envelope.header().getMessageType());
+    }
+
+    /**
+     * 写出到通道
+     */
+    public void writeTo(Channel channel) {
+        channel.writeAndFlush(frameFor(channel), channel.voidPromise());
+    }
+
+    /**
+     * 释放编码结果的引用，已写出的帧在发送完成后由Netty各自释放
+     */
+    public void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        if (json != null) {
+            json.release();
+        }
+        if (binary != null) {
+            binary.release();
+        }
+    }
+}
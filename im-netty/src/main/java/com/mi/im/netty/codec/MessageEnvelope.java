@@ -0,0 +1,275 @@
+package com.mi.im.netty.codec;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONException;
+import com.mi.im.common.model.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.CorruptedFrameException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 入站消息信封：只解析路由字段，正文保留客户端发来的原始字节
+ * 路由字段（类型、发送者、接收者、群标志、消息ID、状态、发送时间等）解析到 {@link #header()}，
+ * 服务端的修改（分配消息ID、发送时间、状态）都写在header上；
+ * 转发给同协议的接收者、写入离线收件箱和持久化队列时，header重新编码，正文按原始字节拼接，
+ * 不解析内容字符串。只有认证等需要完整字段的场景才调用 {@link #message()} 解码正文
+ */
+public final class MessageEnvelope {
+
+    // JSON协议中按路由字段解析的成员，其余成员作为正文原样保留
+    private static final Set<String> ROUTING_KEYS = new HashSet<>(Arrays.asList(
+            "messageId", "senderId", "receiverId", "groupId", "messageType",
+            "status", "sendTime", "isGroupMessage", "isOffline", "isBlocked"));
+
+    private final Message header;
+    // 原始帧内容，服务端构造的消息为null
+    private final byte[] data;
+    private final boolean binary;
+    // 二进制协议：正文起始位置和正文字段存在位
+    private final int bodyOffset;
+    private final int bodyFields;
+    // JSON协议：正文成员在data中的范围，依次为 起始, 结束
+    private final int[] bodyRanges;
+
+    private MessageEnvelope(Message header, byte[] data, boolean binary, int bodyOffset, int bodyFields,
+                            int[] bodyRanges) {
+        this.header = header;
+        this.data = data;
+        this.binary = binary;
+        this.bodyOffset = bodyOffset;
+        this.bodyFields = bodyFields;
+        this.bodyRanges = bodyRanges;
+    }
+
+    /**
+     * 包装服务端构造的完整消息
+     */
+    public static MessageEnvelope of(Message message) {
+        return new MessageEnvelope(message, null, false, 0, 0, null);
+    }
+
+    /**
+     * 解析二进制帧的路由字段，帧内容复制一份保留，调用方仍负责释放帧
+     */
+    public static MessageEnvelope parseBinary(ByteBuf content) {
+        byte[] data = ByteBufUtil.getBytes(content);
+        ByteBuf in = Unpooled.wrappedBuffer(data);
+        Message header = new Message();
+        int fields = BinaryMessageCodec.readHeader(in, header);
+        return new MessageEnvelope(header, data, true, in.readerIndex(),
+                fields & BinaryMessageCodec.BODY_FIELDS, null);
+    }
+
+    /**
+     * 解析JSON文本帧的路由字段，帧内容复制一份保留，调用方仍负责释放帧
+     */
+    public static MessageEnvelope parseJson(ByteBuf content) {
+        return parseJson(ByteBufUtil.getBytes(content));
+    }
+
+    /**
+     * 解析JSON消息的路由字段：逐个扫描顶层成员，路由成员交给fastjson解析，
+     * 正文成员只跳过并记录位置，不构造字符串
+     */
+    public static MessageEnvelope parseJson(byte[] data) {
+        StringBuilder routing = new StringBuilder(160).append('{');
+        int[] ranges = new int[8];
+        int count = 0;
+        int i = skipWhitespace(data, 0);
+        expect(data, i, '{');
+        i = skipWhitespace(data, i + 1);
+        if (i < data.length && data[i] == '}') {
+            return new MessageEnvelope(new Message(), data, false, 0, 0, new int[0]);
+        }
+        while (true) {
+            int memberStart = i;
+            expect(data, i, '"');
+            int keyEnd = skipString(data, i);
+            String key = new String(data, i + 1, keyEnd - i - 2, StandardCharsets.UTF_8);
+            i = skipWhitespace(data, keyEnd);
+            expect(data, i, ':');
+            i = skipValue(data, skipWhitespace(data, i + 1));
+            if (ROUTING_KEYS.contains(key)) {
+                if (routing.length() > 1) {
+                    routing.append(',');
+                }
+                routing.append(new String(data, memberStart, i - memberStart, StandardCharsets.UTF_8));
+            } else {
+                if (count + 2 > ranges.length) {
+                    ranges = Arrays.copyOf(ranges, ranges.length * 2);
+                }
+                ranges[count++] = memberStart;
+                ranges[count++] = i;
+            }
+            i = skipWhitespace(data, i);
+            if (i < data.length && data[i] == ',') {
+                i = skipWhitespace(data, i + 1);
+                continue;
+            }
+            expect(data, i, '}');
+            break;
+        }
+        Message header;
+        try {
+            header = JSON.parseObject(routing.append('}').toString(), Message.class);
+        } catch (JSONException e) {
+            throw new CorruptedFrameException("消息路由字段格式错误", e);
+        }
+        return new MessageEnvelope(header, data, false, 0, 0, Arrays.copyOf(ranges, count));
+    }
+
+    /**
+     * 路由字段，服务端对消息的修改都写在这里
+     */
+    public Message header() {
+        return header;
+    }
+
+    /**
+     * 解码完整消息（包含正文），路由字段以header为准
+     */
+    public Message message() {
+        if (data == null) {
+            return header;
+        }
+        Message message;
+        if (binary) {
+            message = new Message();
+            BinaryMessageCodec.readBody(Unpooled.wrappedBuffer(data, bodyOffset, data.length - bodyOffset),
+                    bodyFields, message);
+        } else {
+            try {
+                message = JSON.parseObject(data, Message.class);
+            } catch (JSONException e) {
+                throw new CorruptedFrameException("消息格式错误", e);
+            }
+        }
+        message.setMessageId(header.getMessageId());
+        message.setSenderId(header.getSenderId());
+        message.setReceiverId(header.getReceiverId());
+        message.setGroupId(header.getGroupId());
+        message.setMessageType(header.getMessageType());
+        message.setStatus(header.getStatus());
+        message.setSendTime(header.getSendTime());
+        message.setIsGroupMessage(header.getIsGroupMessage());
+        message.setIsOffline(header.getIsOffline());
+        message.setIsBlocked(header.getIsBlocked());
+        return message;
+    }
+
+    /**
+     * 编码为二进制帧内容；来源为二进制协议时正文原样复制
+     */
+    public void encodeBinary(ByteBuf out) {
+        if (data != null && binary) {
+            BinaryMessageCodec.writeHeader(header, bodyFields, out);
+            out.writeBytes(data, bodyOffset, data.length - bodyOffset);
+        } else {
+            BinaryMessageCodec.encode(message(), out);
+        }
+    }
+
+    /**
+     * 编码为JSON文本帧内容；来源为JSON协议时正文成员原样拼接
+     */
+    public void encodeJson(ByteBuf out) {
+        if (data != null && !binary) {
+            byte[] head = JSON.toJSONBytes(header);
+            // 去掉header末尾的'}'，接着写入正文成员
+            out.writeBytes(head, 0, head.length - 1);
+            boolean first = head.length == 2;
+            for (int i = 0; i < bodyRanges.length; i += 2) {
+                if (!first) {
+                    out.writeByte(',');
+                }
+                first = false;
+                out.writeBytes(data, bodyRanges[i], bodyRanges[i + 1] - bodyRanges[i]);
+            }
+            out.writeByte('}');
+        } else {
+            ByteBufUtil.writeUtf8(out, JSON.toJSONString(message()));
+        }
+    }
+
+    /**
+     * 完整消息的JSON，用于离线收件箱、节点间转发和持久化
+     */
+    public String toJson() {
+        if (data != null && !binary) {
+            ByteBuf buf = Unpooled.buffer(data.length + 64);
+            encodeJson(buf);
+            return buf.toString(StandardCharsets.UTF_8);
+        }
+        return JSON.toJSONString(message());
+    }
+
+    private static int skipWhitespace(byte[] data, int i) {
+        while (i < data.length && (data[i] == ' ' || data[i] == '\t' || data[i] == '\n' || data[i] == '\r')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static void expect(byte[] data, int i, char c) {
+        if (i >= data.length || data[i] != c) {
+            throw new CorruptedFrameException("JSON消息格式错误，位置" + i + "应为" + c);
+        }
+    }
+
+    // 跳过以引号开始的字符串，返回结束引号之后的位置
+    private static int skipString(byte[] data, int i) {
+        for (i = i + 1; i < data.length; i++) {
+            if (data[i] == '\\') {
+                i++;
+            } else if (data[i] == '"') {
+                return i + 1;
+            }
+        }
+        throw new CorruptedFrameException("JSON字符串未结束");
+    }
+
+    // 跳过一个值（字符串、对象、数组、数字或字面量），返回值之后的位置
+    private static int skipValue(byte[] data, int i) {
+        if (i >= data.length) {
+            throw new CorruptedFrameException("JSON消息不完整");
+        }
+        byte c = data[i];
+        if (c == '"') {
+            return skipString(data, i);
+        }
+        if (c == '{' || c == '[') {
+            int depth = 0;
+            while (i < data.length) {
+                byte b = data[i];
+                if (b == '"') {
+                    i = skipString(data, i);
+                    continue;
+                }
+                if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    if (--depth == 0) {
+                        return i + 1;
+                    }
+                }
+                i++;
+            }
+            throw new CorruptedFrameException("JSON对象未结束");
+        }
+        int start = i;
+        while (i < data.length && data[i] != ',' && data[i] != '}' && data[i] != ']'
+                && data[i] != ' ' && data[i] != '\t' && data[i] != '\n' && data[i] != '\r') {
+            i++;
+        }
+        if (i == start) {
+            throw new CorruptedFrameException("JSON值为空");
+        }
+        return i;
+    }
+}
@@ -0,0 +1,74 @@
+package com.mi.im.netty.codec;
+
+import com.alibaba.fastjson.JSON;
+import com.mi.im.common.model.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageCodec;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.AttributeKey;
+
+import java.util.List;
+
+/**
+ * WebSocket帧与Message之间的编解码
+ * 入站同时接受文本帧（JSON）和二进制帧，解码为只含路由字段的 {@link MessageEnvelope}；
+ * 出站按握手协商的子协议选择帧类型
+ */
+@ChannelHandler.Sharable
+public class MessageFrameCodec extends MessageToMessageCodec<WebSocketFrame, Message> {
+
+    // 通道协商后使用的编解码器，供共享编码的扇出路径选择帧类型
+    public static final AttributeKey<MessageFrameCodec> PROTOCOL = AttributeKey.valueOf("im.protocol");
+
+    // JSON文本协议（旧客户端默认）
+    public static final MessageFrameCodec JSON_CODEC = new MessageFrameCodec(false);
+    // 二进制协议
+    public static final MessageFrameCodec BINARY_CODEC = new MessageFrameCodec(true);
+
+    private final boolean binary;
+
+    private MessageFrameCodec(boolean binary) {
+        this.binary = binary;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    @Override
+    public boolean acceptInboundMessage(Object msg) {
+        return msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, Message message, List<Object> out) {
+        if (binary) {
+            ByteBuf buf = ctx.alloc().buffer();
+            try {
+                BinaryMessageCodec.encode(message, buf);
+            } catch (RuntimeException e) {
+                buf.release();
+                throw e;
+            }
+            out.add(MessageFrames.binary(buf, message.getMessageType()));
+        } else {
+            out.add(MessageFrames.text(ByteBufUtil.writeUtf8(ctx.alloc(), JSON.toJSONString(message)),
+                    message.getMessageType()));
+        }
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, WebSocketFrame frame, List<Object> out) {
+        // 只解析路由字段，正文在需要时才解码
+        if (frame instanceof BinaryWebSocketFrame) {
+            out.add(MessageEnvelope.parseBinary(frame.content()));
+        } else {
+            out.add(MessageEnvelope.parseJson(frame.content()));
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.mi.im.netty.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+/**
+ * 携带消息类型的出站帧
+ * 帧内容已编码，后面的处理器（如压缩过滤）不必再解析内容就能按消息类型处理
+ */
+public final class MessageFrames {
+
+    private MessageFrames() {
+    }
+
+    static WebSocketFrame text(ByteBuf content, Integer messageType) {
+        return new Text(content, messageType);
+    }
+
+    static WebSocketFrame binary(ByteBuf content, Integer messageType) {
+        return new Binary(content, messageType);
+    }
+
+    /**
+     * 帧对应的消息类型，不是消息帧（如Ping、心跳回复）时返回null
+     */
+    public static Integer messageType(WebSocketFrame frame) {
+        if (frame instanceof Text) {
+            return ((Text) frame).messageType;
+        }
+        if (frame instanceof Binary) {
+            return ((Binary) frame).messageType;
+        }
+        return null;
+    }
+
+    private static final class Text extends TextWebSocketFrame {
+        private final Integer messageType;
+
+        Text(ByteBuf content, Integer messageType) {
+            super(content);
+            this.messageType = messageType;
+        }
+    }
+
+    private static final class Binary extends BinaryWebSocketFrame {
+        private final Integer messageType;
+
+        Binary(ByteBuf content, Integer messageType) {
+            super(content);
+            this.messageType = messageType;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.mi.im.netty.codec;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 子协议协商处理器
+ * WebSocket握手完成后根据客户端选择的子协议，将自身替换为对应的帧编解码器
+ */
+@ChannelHandler.Sharable
+public class ProtocolNegotiationHandler extends ChannelInboundHandlerAdapter {
+    private static final Logger logger = LoggerFactory.getLogger(ProtocolNegotiationHandler.class);
+
+    // 二进制协议子协议名
+    public static final String SUBPROTOCOL_BINARY = "im-binary-v1";
+    // JSON协议子协议名
+    public static final String SUBPROTOCOL_JSON = "im-json";
+
+    public static final ProtocolNegotiationHandler INSTANCE = new ProtocolNegotiationHandler();
+
+    // 握手完成后编解码器在pipeline中的名称
+    public static final String CODEC_NAME = "message-codec";
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof WebSocketServerProtocolHandler.HandshakeComplete) {
+            String subprotocol = ((WebSocketServerProtocolHandler.HandshakeComplete) evt).selectedSubprotocol();
+            MessageFrameCodec codec = SUBPROTOCOL_BINARY.equals(subprotocol)
+                    ? MessageFrameCodec.BINARY_CODEC
+                    : MessageFrameCodec.JSON_CODEC;
+            ctx.channel().attr(MessageFrameCodec.PROTOCOL).set(codec);
+            ctx.pipeline().replace(this, CODEC_NAME, codec);
+            logger.debug("WebSocket握手完成，子协议: {}", subprotocol);
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+}
@@ -1,31 +1,31 @@
 package com.mi.im.netty.config;
+import com.mi.im.netty.auth.HandshakeAuthHandler;
+import com.mi.im.netty.codec.DeflateExtensionHandshaker;
+import com.mi.im.netty.codec.ProtocolNegotiationHandler;
+import com.mi.im.netty.heartbeat.HeartbeatHandler;
+import com.mi.im.netty.handler.RateLimitHandler;
+import com.mi.im.netty.handler.SlowConsumerHandler;
 import com.mi.im.netty.handler.WebSocketHandler;
+import com.mi.im.netty.session.ConnectionTracker;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandler;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.handler.stream.ChunkedWriteHandler;
-import io.netty.handler.timeout.IdleStateHandler;
-import org.apache.curator.RetryPolicy;
-import org.apache.curator.framework.CuratorFramework;
-import org.apache.curator.framework.CuratorFrameworkFactory;
-import org.apache.curator.retry.ExponentialBackoffRetry;
-import org.apache.zookeeper.CreateMode;
-import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
-import javax.annotation.PostConstruct;
-import javax.annotation.PreDestroy;
-import java.net.InetAddress;
+import java.util.HashSet;
 import java.util.Random;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Set;
 
 /**
  * Netty配置类
@@ -40,20 +40,31 @@ public class NettyConfig {
     @Value("${netty.websocket.path:/ws}")
     private String webSocketPath;
 
-    @Value("${netty.idle.read-time:60}")
-    private int readIdleTime;
+    // 支持的WebSocket子协议，未声明子协议的旧客户端使用JSON
+    @Value("${netty.websocket.subprotocols:" + ProtocolNegotiationHandler.SUBPROTOCOL_BINARY + ","
+            + ProtocolNegotiationHandler.SUBPROTOCOL_JSON + "}")
+    private String subprotocols;
 
-    @Value("${netty.idle.write-time:30}")
-    private int writeIdleTime;
+    // WebSocket permessage-deflate压缩
+    @Value("${netty.compression.enabled:true}")
+    private boolean compressionEnabled;
 
-    @Value("${netty.idle.all-time:0}")
-    private int allIdleTime;
+    @Value("${netty.compression.level:6}")
+    private int compressionLevel;
 
-    @Value("${zookeeper.address:localhost:2181}")
-    private String zookeeperAddress;
+    // 小于该字节数的帧不压缩
+    @Value("${netty.compression.min-size:256}")
+    private int compressionMinSize;
 
-    @Value("${zookeeper.base-path:/im-netty}")
-    private String zookeeperBasePath;
+    // 不压缩的消息类型（正文已是压缩数据的媒体消息）
+    @Value("${netty.compression.bypass-types:2,3,4}")
+    private String compressionBypassTypes;
+
+    @Value("${netty.compression.server-context-takeover:false}")
+    private boolean serverContextTakeover;
+
+    @Value("${netty.compression.client-context-takeover:false}")
+    private boolean clientContextTakeover;
 
     @Value("${redis.host:localhost}")
     private String redisHost;
@@ -61,49 +72,27 @@ public class NettyConfig {
     @Value("${redis.port:6379}")
     private int redisPort;
 
-    private CuratorFramework curatorFramework;
-    private String nodePath;
-    private String serverAddress;
-    private AtomicInteger onlineCount = new AtomicInteger(0);
+    // 连续多少次flush后强制真正刷出，其余flush合并到同一轮事件循环
+    @Value("${netty.flush.explicit-after:256}")
+    private int explicitFlushAfterFlushes;
 
-    /**
-     * 初始化Zookeeper客户端
-     */
-    @PostConstruct
-    public void init() {
-        RetryPolicy retryPolicy = new ExponentialBackoffRetry(1000, 3);
-        curatorFramework = CuratorFrameworkFactory.newClient(zookeeperAddress, retryPolicy);
-        curatorFramework.start();
-
-        try {
-            // 创建基础路径
-            Stat stat = curatorFramework.checkExists().forPath(zookeeperBasePath);
-            if (stat == null) {
-                curatorFramework.create().creatingParentsIfNeeded().withMode(CreateMode.PERSISTENT)
-                        .forPath(zookeeperBasePath);
-            }
+    @Autowired
+    private WebSocketHandler webSocketHandler;
 
-            // 获取本地地址
-            serverAddress = InetAddress.getLocalHost().getHostAddress();
-        } catch (Exception e) {
-            logger.error("初始化Zookeeper失败", e);
-        }
-    }
+    @Autowired
+    private SlowConsumerHandler slowConsumerHandler;
 
-    /**
-     * 注册到Zookeeper
-     */
-    public void registerToZookeeper(int port) {
-        try {
-            // 创建临时节点
-            nodePath = zookeeperBasePath + "/" + serverAddress + ":" + port;
-            String data = "{\"address\":\"" + serverAddress + ":" + port + ",\"onlineCount\":0}";
-            curatorFramework.create().withMode(CreateMode.EPHEMERAL).forPath(nodePath, data.getBytes());
-            logger.info("注册到Zookeeper成功: {}", nodePath);
-        } catch (Exception e) {
-            logger.error("注册到Zookeeper失败", e);
-        }
-    }
+    @Autowired
+    private HandshakeAuthHandler handshakeAuthHandler;
+
+    @Autowired
+    private RateLimitHandler rateLimitHandler;
+
+    @Autowired
+    private HeartbeatHandler heartbeatHandler;
+
+    @Autowired
+    private ConnectionTracker connectionTracker;
 
     /**
      * 获取动态端口
@@ -119,98 +108,68 @@ public class NettyConfig {
         return 8000 + new Random().nextInt(1000);
     }
 
-    /**
-     * 增加在线人数
-     */
-    public void incrementOnlineCount() {
-        int count = onlineCount.incrementAndGet();
-        updateOnlineCount(count);
-    }
-
-    /**
-     * 减少在线人数
-     */
-    public void decrementOnlineCount() {
-        int count = onlineCount.decrementAndGet();
-        if (count < 0) {
-            count = 0;
-            onlineCount.set(0);
-        }
-        updateOnlineCount(count);
-    }
-
-    /**
-     * 更新在线人数
-     */
-    private void updateOnlineCount(int count) {
-        try {
-            String data = "{\"address\":\"" + serverAddress + ":" + port + ",\"onlineCount\":" + count + "}";
-            curatorFramework.setData().forPath(nodePath, data.getBytes());
-        } catch (Exception e) {
-            logger.error("更新Zookeeper节点数据失败", e);
-        }
-    }
-
-    /**
-     * 获取在线人数
-     */
-    public int getOnlineCount() {
-        return onlineCount.get();
-    }
-
-    /**
-     * 关闭Zookeeper客户端
-     */
-    @PreDestroy
-    public void close() {
-        if (curatorFramework != null) {
-            curatorFramework.close();
-        }
-    }
-    
     /**
      * 创建ChannelInitializer，用于配置Netty的通道处理器链
      */
     @Bean
     public ChannelInitializer<SocketChannel> channelInitializer() {
+        DeflateExtensionHandshaker deflate = compressionEnabled ? deflateExtensionHandshaker() : null;
         return new ChannelInitializer<SocketChannel>() {
             @Override
             protected void initChannel(SocketChannel ch) throws Exception {
+                // 跟踪所有连接，排空时包括握手中和未认证的连接
+                connectionTracker.add(ch);
                 // 获取通道的pipeline
                 ChannelPipeline pipeline = ch.pipeline();
                 
+                // 合并同一轮事件循环内的多次flush，减少系统调用
+                pipeline.addLast("flush-consolidation", new FlushConsolidationHandler(explicitFlushAfterFlushes, true));
                 // 添加HTTP编解码器
                 pipeline.addLast("http-codec", new HttpServerCodec());
                 // 添加HTTP聚合器，用于将HTTP消息聚合为FullHttpRequest或FullHttpResponse
                 pipeline.addLast("http-aggregator", new HttpObjectAggregator(65536));
                 // 添加块写入处理器，支持大文件传输
                 pipeline.addLast("http-chunked", new ChunkedWriteHandler());
-                // 添加空闲状态处理器，用于心跳检测
-                pipeline.addLast("idle-handler", new IdleStateHandler(
-                        readIdleTime, writeIdleTime, allIdleTime, TimeUnit.SECONDS));
+                // 握手前校验连接票据，无效时直接返回401
+                pipeline.addLast("handshake-auth", handshakeAuthHandler);
+                if (deflate != null) {
+                    // 协商permessage-deflate，握手后在其后插入压缩和解压处理器
+                    pipeline.addLast("ws-compression", new WebSocketServerExtensionHandler(deflate));
+                }
+                // 心跳检测：记录读取时间并回复客户端心跳，空闲检测由节点共享的时间轮完成
+                // （位于解压之后，能识别压缩后的空心跳帧）
+                pipeline.addLast("heartbeat", heartbeatHandler);
                 // 添加WebSocket协议处理器
-                pipeline.addLast("websocket-protocol", new WebSocketServerProtocolHandler(webSocketPath));
+                pipeline.addLast("websocket-protocol",
+                        new WebSocketServerProtocolHandler(webSocketPath, subprotocols, deflate != null));
+                // 握手完成后按子协议替换为JSON或二进制编解码器
+                pipeline.addLast(ProtocolNegotiationHandler.CODEC_NAME, ProtocolNegotiationHandler.INSTANCE);
                 
-                // 注意：具体的业务处理器需要在实际的处理器类中添加
-                pipeline.addLast("message-handler", new WebSocketHandler());
+                // 慢消费者处理，通道持续不可写时断开
+                pipeline.addLast("slow-consumer", slowConsumerHandler);
+                // 按连接和用户限流，超出速率时暂停读取
+                pipeline.addLast("rate-limit", rateLimitHandler);
+                // 业务处理器（无状态，所有Channel共享同一实例）
+                pipeline.addLast("message-handler", webSocketHandler);
             }
         };
     }
     
+    private DeflateExtensionHandshaker deflateExtensionHandshaker() {
+        Set<Integer> bypassTypes = new HashSet<>();
+        for (String type : compressionBypassTypes.split(",")) {
+            if (!type.trim().isEmpty()) {
+                bypassTypes.add(Integer.parseInt(type.trim()));
+            }
+        }
+        logger.info("WebSocket压缩已启用，级别{}，最小{}字节，不压缩类型{}，服务端上下文保留{}，客户端上下文保留{}",
+                compressionLevel, compressionMinSize, bypassTypes, serverContextTakeover, clientContextTakeover);
+        return new DeflateExtensionHandshaker(compressionLevel, compressionMinSize, bypassTypes,
+                serverContextTakeover, clientContextTakeover);
+    }
+    
     // getter方法
     public String getWebSocketPath() {
         return webSocketPath;
     }
-
-    public int getReadIdleTime() {
-        return readIdleTime;
-    }
-
-    public int getWriteIdleTime() {
-        return writeIdleTime;
-    }
-
-    public int getAllIdleTime() {
-        return allIdleTime;
-    }
 }
@@ -0,0 +1,43 @@
+package com.mi.im.netty.config;
+
+import com.mi.im.netty.cluster.LocalNode;
+import com.mi.im.netty.cluster.NodeMessageBus;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.DirectExchange;
+import org.springframework.amqp.core.Queue;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * RabbitMQ配置类
+ * 每个Netty节点声明一个以节点ID命名的专属队列，节点下线后队列自动删除
+ */
+@Configuration
+public class RabbitConfig {
+
+    @Value("${im.cluster.exchange:im.node}")
+    private String exchange;
+
+    /**
+     * 节点间投递交换机，路由键为目标节点ID
+     */
+    @Bean
+    public DirectExchange nodeExchange() {
+        return new DirectExchange(exchange, true, false);
+    }
+
+    /**
+     * 本节点专属队列
+     */
+    @Bean
+    public Queue nodeQueue(LocalNode localNode) {
+        return new Queue(NodeMessageBus.queueName(localNode.getNodeId()), false, false, true);
+    }
+
+    @Bean
+    public Binding nodeQueueBinding(Queue nodeQueue, DirectExchange nodeExchange, LocalNode localNode) {
+        return BindingBuilder.bind(nodeQueue).to(nodeExchange).with(localNode.getNodeId());
+    }
+}
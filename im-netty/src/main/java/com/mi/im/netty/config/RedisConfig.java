@@ -0,0 +1,52 @@
+package com.mi.im.netty.config;
+
+import com.mi.im.common.constant.RedisKeyConstants;
+import com.mi.im.netty.blacklist.BlacklistCache;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+/**
+ * Redis配置类
+ */
+@Configuration
+public class RedisConfig {
+
+    /**
+     * 配置RedisTemplate，序列化方式与各微服务保持一致
+     */
+    @Bean
+    public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory redisConnectionFactory) {
+        RedisTemplate<String, Object> template = new RedisTemplate<>();
+        template.setConnectionFactory(redisConnectionFactory);
+
+        // 设置键的序列化方式
+        template.setKeySerializer(new StringRedisSerializer());
+        // 设置值的序列化方式
+        template.setValueSerializer(new GenericJackson2JsonRedisSerializer());
+        // 设置哈希键的序列化方式
+        template.setHashKeySerializer(new StringRedisSerializer());
+        // 设置哈希值的序列化方式
+        template.setHashValueSerializer(new GenericJackson2JsonRedisSerializer());
+
+        template.afterPropertiesSet();
+        return template;
+    }
+
+    /**
+     * 订阅黑名单变更通知
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory redisConnectionFactory,
+                                                                       BlacklistCache blacklistCache) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redisConnectionFactory);
+        container.addMessageListener(blacklistCache, new ChannelTopic(RedisKeyConstants.BLACKLIST_CHANGED_CHANNEL));
+        return container;
+    }
+}
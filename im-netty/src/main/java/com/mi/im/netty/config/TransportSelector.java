@@ -0,0 +1,136 @@
+package com.mi.im.netty.config;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * 传输层选择器
+ * Linux下优先使用epoll（支持SO_REUSEPORT多acceptor绑定），其他平台回退到NIO
+ */
+@Component
+public class TransportSelector {
+    private static final Logger logger = LoggerFactory.getLogger(TransportSelector.class);
+
+    @Value("${netty.boss-threads:1}")
+    private int bossThreads;
+
+    // 0表示使用Netty默认值（CPU核数*2）
+    @Value("${netty.worker-threads:0}")
+    private int workerThreads;
+
+    @Value("${netty.transport.native:true}")
+    private boolean preferNative;
+
+    @Value("${netty.transport.reuse-port:true}")
+    private boolean reusePort;
+
+    @Value("${netty.so-backlog:1024}")
+    private int soBacklog;
+
+    @Value("${netty.tcp-nodelay:true}")
+    private boolean tcpNoDelay;
+
+    // 0表示使用系统默认缓冲区大小
+    @Value("${netty.so-rcvbuf:0}")
+    private int soRcvBuf;
+
+    @Value("${netty.so-sndbuf:0}")
+    private int soSndBuf;
+
+    // 待写出字节低于低水位时通道恢复可写
+    @Value("${netty.write-buffer.low-water-mark:32768}")
+    private int writeBufferLowWaterMark;
+
+    // 待写出字节超过高水位时通道变为不可写，触发慢消费者处理
+    @Value("${netty.write-buffer.high-water-mark:65536}")
+    private int writeBufferHighWaterMark;
+
+    /**
+     * 当前是否使用epoll
+     */
+    public boolean useEpoll() {
+        return preferNative && Epoll.isAvailable();
+    }
+
+    /**
+     * 是否启用SO_REUSEPORT，多个acceptor绑定同一端口
+     */
+    public boolean useReusePort() {
+        return useEpoll() && reusePort && bossThreads > 1;
+    }
+
+    /**
+     * 需要执行bind的次数，启用SO_REUSEPORT时每个boss线程各绑定一次
+     */
+    public int bindCount() {
+        return useReusePort() ? bossThreads : 1;
+    }
+
+    /**
+     * 创建boss事件循环组
+     */
+    public EventLoopGroup newBossGroup() {
+        DefaultThreadFactory threadFactory = new DefaultThreadFactory("netty-boss");
+        return useEpoll()
+                ? new EpollEventLoopGroup(bossThreads, threadFactory)
+                : new NioEventLoopGroup(bossThreads, threadFactory);
+    }
+
+    /**
+     * 创建worker事件循环组
+     */
+    public EventLoopGroup newWorkerGroup() {
+        DefaultThreadFactory threadFactory = new DefaultThreadFactory("netty-worker");
+        return useEpoll()
+                ? new EpollEventLoopGroup(workerThreads, threadFactory)
+                : new NioEventLoopGroup(workerThreads, threadFactory);
+    }
+
+    /**
+     * 服务端Channel类型
+     */
+    public Class<? extends ServerChannel> serverChannelClass() {
+        return useEpoll() ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    /**
+     * 按当前传输层配置ServerBootstrap的通道参数
+     */
+    public void configure(ServerBootstrap bootstrap) {
+        bootstrap.channel(serverChannelClass())
+                .option(ChannelOption.SO_BACKLOG, soBacklog)
+                .option(ChannelOption.SO_REUSEADDR, true)
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childOption(ChannelOption.SO_KEEPALIVE, true)
+                .childOption(ChannelOption.TCP_NODELAY, tcpNoDelay)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK,
+                        new WriteBufferWaterMark(writeBufferLowWaterMark, writeBufferHighWaterMark))
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+        if (soRcvBuf > 0) {
+            bootstrap.childOption(ChannelOption.SO_RCVBUF, soRcvBuf);
+        }
+        if (soSndBuf > 0) {
+            bootstrap.childOption(ChannelOption.SO_SNDBUF, soSndBuf);
+        }
+        if (useReusePort()) {
+            bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+        }
+        logger.info("Netty传输层: {}, boss线程: {}, worker线程: {}, SO_REUSEPORT: {}",
+                useEpoll() ? "epoll" : "nio", bossThreads, workerThreads, useReusePort());
+    }
+}
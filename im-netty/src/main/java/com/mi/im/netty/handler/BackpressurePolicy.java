@@ -0,0 +1,13 @@
+package com.mi.im.netty.handler;
+
+/**
+ * 慢消费者（通道持续不可写）时的处理策略
+ */
+public enum BackpressurePolicy {
+    // 丢弃非关键消息，关键消息继续排队
+    DROP,
+    // 丢弃非关键消息，关键消息转存离线
+    SPILL,
+    // 断开连接，关键消息转存离线，客户端重连后补发
+    DISCONNECT
+}
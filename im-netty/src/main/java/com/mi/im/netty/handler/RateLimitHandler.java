@@ -0,0 +1,250 @@
+package com.mi.im.netty.handler;
+
+import com.mi.im.common.ticket.ConnectTicket;
+import com.mi.im.netty.admission.AdmissionController;
+import com.mi.im.netty.admission.RateLimiter;
+import com.mi.im.netty.auth.HandshakeAuthHandler;
+import com.mi.im.netty.codec.MessageEnvelope;
+import com.mi.im.netty.metrics.NettyMetrics;
+import com.mi.im.netty.session.SessionRegistry;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.AttributeKey;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 入站消息限流处理器
+ * 按消息类型分别配置速率，同时按连接和按用户（跨设备共享）限流。
+ * 超出速率时不丢弃消息，而是暂停该连接的读取（autoRead），
+ * 已读出的消息暂存到令牌足够时再按原顺序交给业务处理器；
+ * 暂停期间数据留在内核接收缓冲区，由TCP流控让客户端放慢发送
+ */
+@Component
+@ChannelHandler.Sharable
+public class RateLimitHandler extends ChannelInboundHandlerAdapter {
+
+    // 连接的限流状态，只在该连接的事件循环中访问
+    private static final AttributeKey<ChannelBudget> BUDGET = AttributeKey.valueOf("im.rateBudget");
+
+    @Value("${netty.ratelimit.enabled:true}")
+    private boolean enabled;
+
+    // 每个消息类型的单连接速率，格式 类型:每秒条数:突发条数
+    @Value("${netty.ratelimit.budgets:0:1:5,1:20:50,2:5:10,3:5:10,4:2:5,5:2:5,6:5:10}")
+    private String budgetSpec;
+
+    // 未配置的消息类型的单连接速率，格式 每秒条数:突发条数
+    @Value("${netty.ratelimit.default-budget:10:20}")
+    private String defaultBudgetSpec;
+
+    // 单用户所有设备合计速率相对单连接速率的倍数
+    @Value("${netty.ratelimit.user-multiplier:2}")
+    private double userMultiplier;
+
+    // 保存限流状态的用户数上限，超出时清理令牌桶已满（空闲）的用户
+    @Value("${netty.ratelimit.user-cache-size:100000}")
+    private int userCacheSize;
+
+    // 两次清理之间的最小间隔（毫秒），活跃用户超过上限时避免每次创建都遍历
+    @Value("${netty.ratelimit.user-sweep-interval:1000}")
+    private long userSweepInterval;
+
+    @Autowired
+    private NettyMetrics metrics;
+
+    // 下标为消息类型，最后一个元素为默认速率
+    private double[][] budgets;
+
+    private final Map<String, RateLimiter[]> userLimiters = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        int maxType = 0;
+        for (String entry : budgetSpec.split(",")) {
+            maxType = Math.max(maxType, Integer.parseInt(entry.trim().split(":")[0]));
+        }
+        budgets = new double[maxType + 2][];
+        budgets[maxType + 1] = parseBudget(defaultBudgetSpec.trim().split(":"), 0);
+        for (int i = 0; i <= maxType; i++) {
+            budgets[i] = budgets[maxType + 1];
+        }
+        for (String entry : budgetSpec.split(",")) {
+            String[] parts = entry.trim().split(":");
+            budgets[Integer.parseInt(parts[0])] = parseBudget(parts, 1);
+        }
+    }
+
+    private static double[] parseBudget(String[] parts, int offset) {
+        return new double[]{Double.parseDouble(parts[offset]), Double.parseDouble(parts[offset + 1])};
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (!enabled || !(msg instanceof MessageEnvelope)) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        ChannelBudget state = budget(ctx.channel());
+        MessageEnvelope message = (MessageEnvelope) msg;
+        if (!state.pending.isEmpty()) {
+            // 已在暂停中，排在之前的消息后面
+            state.pending.add(message);
+            metrics.incrementThrottledFrames();
+            return;
+        }
+        long waitNanos = acquire(ctx.channel(), state, message);
+        if (waitNanos == 0) {
+            ctx.fireChannelRead(message);
+            return;
+        }
+        state.pending.add(message);
+        metrics.incrementThrottledFrames();
+        pause(ctx, state, waitNanos);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        ChannelBudget state = ctx.channel().attr(BUDGET).get();
+        if (state != null) {
+            state.pending.clear();
+        }
+        super.channelInactive(ctx);
+    }
+
+    private void pause(ChannelHandlerContext ctx, ChannelBudget state, long waitNanos) {
+        Channel channel = ctx.channel();
+        if (channel.config().isAutoRead()) {
+            channel.config().setAutoRead(false);
+            metrics.incrementThrottlePauses();
+        }
+        ctx.executor().schedule(() -> resume(ctx, state), waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // 令牌恢复后按顺序放行暂存的消息，全部放行后恢复读取
+    private void resume(ChannelHandlerContext ctx, ChannelBudget state) {
+        Channel channel = ctx.channel();
+        if (!channel.isActive()) {
+            state.pending.clear();
+            return;
+        }
+        while (!state.pending.isEmpty()) {
+            long waitNanos = acquire(channel, state, state.pending.peek());
+            if (waitNanos > 0) {
+                ctx.executor().schedule(() -> resume(ctx, state), waitNanos, TimeUnit.NANOSECONDS);
+                return;
+            }
+            ctx.fireChannelRead(state.pending.poll());
+        }
+        // 被准入控制拒绝的连接正在关闭，不恢复读取
+        if (!channel.hasAttr(AdmissionController.RETRY_AFTER)) {
+            channel.config().setAutoRead(true);
+        }
+    }
+
+    // 检查连接和用户的令牌桶，两者都有令牌时才各消耗一个，返回需等待的纳秒数
+    private long acquire(Channel channel, ChannelBudget state, MessageEnvelope message) {
+        int slot = slot(message.header().getMessageType());
+        RateLimiter channelLimiter = state.limiters[slot];
+        if (channelLimiter == null) {
+            channelLimiter = new RateLimiter(budgets[slot][0], (int) budgets[slot][1]);
+            state.limiters[slot] = channelLimiter;
+        }
+        // 连接的令牌桶只在本连接的事件循环中访问，先检查不消耗，用户令牌不足时不会白白扣掉连接令牌
+        long waitNanos = channelLimiter.peek();
+        if (waitNanos > 0) {
+            return waitNanos;
+        }
+        String userId = userId(channel);
+        if (userId != null) {
+            waitNanos = userLimiter(userId, slot).tryAcquire();
+            if (waitNanos > 0) {
+                return waitNanos;
+            }
+        }
+        return channelLimiter.tryAcquire();
+    }
+
+    private RateLimiter userLimiter(String userId, int slot) {
+        RateLimiter[] limiters = userLimiters.get(userId);
+        if (limiters == null) {
+            if (userLimiters.size() >= userCacheSize) {
+                sweepIdleUsers();
+            }
+            limiters = userLimiters.computeIfAbsent(userId, key -> new RateLimiter[budgets.length]);
+        }
+        RateLimiter userLimiter = limiters[slot];
+        if (userLimiter == null) {
+            // 同一用户的多个连接可能同时创建，后写入的覆盖先写入的，最多短暂多放行一个突发
+            userLimiter = new RateLimiter(budgets[slot][0] * userMultiplier,
+                    (int) Math.ceil(budgets[slot][1] * userMultiplier));
+            limiters[slot] = userLimiter;
+        }
+        return userLimiter;
+    }
+
+    // 移除所有令牌桶都已满的用户：重建后的状态与移除前相同，不会重置仍在限流中的用户
+    private void sweepIdleUsers() {
+        long now = System.currentTimeMillis();
+        long last = lastSweep.get();
+        if (now - last < userSweepInterval || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        userLimiters.values().removeIf(limiters -> {
+            for (RateLimiter limiter : limiters) {
+                if (limiter != null && !limiter.isIdle()) {
+                    return false;
+                }
+            }
+            return true;
+        });
+    }
+
+    private int slot(Integer messageType) {
+        int defaultSlot = budgets.length - 1;
+        if (messageType == null || messageType < 0 || messageType >= defaultSlot) {
+            return defaultSlot;
+        }
+        return messageType;
+    }
+
+    private static String userId(Channel channel) {
+        String userId = channel.attr(SessionRegistry.USER_ID).get();
+        if (userId != null) {
+            return userId;
+        }
+        ConnectTicket ticket = channel.attr(HandshakeAuthHandler.TICKET).get();
+        return ticket == null ? null : ticket.getUserId();
+    }
+
+    private ChannelBudget budget(Channel channel) {
+        ChannelBudget state = channel.attr(BUDGET).get();
+        if (state == null) {
+            state = new ChannelBudget(budgets.length);
+            channel.attr(BUDGET).set(state);
+        }
+        return state;
+    }
+
+    private static final class ChannelBudget {
+        // 按消息类型懒创建
+        private final RateLimiter[] limiters;
+        // 暂停读取期间已读出的消息
+        private final ArrayDeque<MessageEnvelope> pending = new ArrayDeque<>();
+
+        ChannelBudget(int slots) {
+            this.limiters = new RateLimiter[slots];
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.mi.im.netty.handler;
+
+import com.mi.im.common.constant.MessageConstants;
+import com.mi.im.common.model.Message;
+import com.mi.im.netty.metrics.NettyMetrics;
+import com.mi.im.netty.session.ConnectionTracker;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 慢消费者处理器
+ * 通道超过高水位变为不可写时按策略丢弃/转存消息，持续不可写超过阈值时断开连接
+ */
+@Component
+@ChannelHandler.Sharable
+public class SlowConsumerHandler extends ChannelInboundHandlerAdapter {
+    private static final Logger logger = LoggerFactory.getLogger(SlowConsumerHandler.class);
+
+    // 不可写超时检测任务
+    private static final AttributeKey<ScheduledFuture<?>> UNWRITABLE_CHECK = AttributeKey.valueOf("im.unwritableCheck");
+
+    @Value("${netty.backpressure.policy:DROP}")
+    private BackpressurePolicy policy;
+
+    // 持续不可写多久后断开连接（毫秒）
+    @Value("${netty.backpressure.unwritable-timeout:10000}")
+    private long unwritableTimeout;
+
+    @Autowired
+    private NettyMetrics metrics;
+
+    @Autowired
+    private ConnectionTracker connectionTracker;
+
+    /**
+     * 写出前的准入检查
+     * @param critical 是否为关键消息（聊天内容），系统通知和发送方状态回执为非关键消息
+     * @return true-可以写出；false-不写出，关键消息需由调用方转存离线并计入转存数
+     */
+    public boolean admit(Channel channel, boolean critical) {
+        if (channel.isWritable()) {
+            return true;
+        }
+        if (!critical) {
+            metrics.incrementDroppedMessages();
+            return false;
+        }
+        switch (policy) {
+            case SPILL:
+                return false;
+            case DISCONNECT:
+                disconnect(channel);
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        Channel channel = ctx.channel();
+        connectionTracker.writabilityChanged(channel);
+        if (!channel.isWritable()) {
+            metrics.incrementUnwritableEvents();
+            if (channel.attr(UNWRITABLE_CHECK).get() == null) {
+                channel.attr(UNWRITABLE_CHECK).set(ctx.executor().schedule(() -> {
+                    channel.attr(UNWRITABLE_CHECK).set(null);
+                    if (channel.isActive() && !channel.isWritable()) {
+                        disconnect(channel);
+                    }
+                }, unwritableTimeout, TimeUnit.MILLISECONDS));
+            }
+        } else {
+            ScheduledFuture<?> check = channel.attr(UNWRITABLE_CHECK).getAndSet(null);
+            if (check != null) {
+                check.cancel(false);
+            }
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        ScheduledFuture<?> check = ctx.channel().attr(UNWRITABLE_CHECK).getAndSet(null);
+        if (check != null) {
+            check.cancel(false);
+        }
+        super.channelInactive(ctx);
+    }
+
+    /**
+     * 是否为聊天内容消息
+     */
+    public static boolean isContentMessage(Message message) {
+        Integer type = message.getMessageType();
+        return type != null && type >= MessageConstants.MESSAGE_TYPE_TEXT && type < MessageConstants.MESSAGE_TYPE_SYSTEM;
+    }
+
+    private void disconnect(Channel channel) {
+        metrics.incrementSlowConsumerDisconnects();
+        logger.warn("慢消费者，断开连接: {}", channel.remoteAddress());
+        channel.close();
+    }
+}
@@ -1,67 +1,132 @@
 package com.mi.im.netty.handler;
 
-import com.alibaba.fastjson.JSON;
 import com.mi.im.common.model.Message;
+import com.mi.im.common.ticket.ConnectTicket;
+import com.mi.im.netty.admission.AdmissionController;
+import com.mi.im.netty.auth.HandshakeAuthHandler;
+import com.mi.im.netty.blacklist.BlacklistCache;
+import com.mi.im.netty.cluster.NodeRegistry;
+import com.mi.im.netty.cluster.UserRouteTable;
+import com.mi.im.netty.codec.EncodedMessage;
+import com.mi.im.netty.codec.MessageEnvelope;
+import com.mi.im.netty.service.MessageBroadcastService;
+import com.mi.im.netty.service.MessageDispatchExecutor;
+import com.mi.im.netty.service.MessagePersistPublisher;
+import com.mi.im.netty.service.OfflineInbox;
+import com.mi.im.netty.session.SessionRegistry;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
-import io.netty.handler.timeout.IdleState;
-import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Date;
+import java.util.UUID;
 
 @Component
-public class WebSocketHandler extends SimpleChannelInboundHandler<TextWebSocketFrame> {
+@ChannelHandler.Sharable
+public class WebSocketHandler extends SimpleChannelInboundHandler<MessageEnvelope> {
     
     private static final Logger logger = LoggerFactory.getLogger(WebSocketHandler.class);
     
-    // 存储用户ID与Channel的映射
-    public static final Map<String, Channel> USER_CHANNEL_MAP = new ConcurrentHashMap<>();
+    // 用户ID与Channel的会话注册表
+    @Autowired
+    private SessionRegistry sessionRegistry;
+    
+    @Autowired
+    private MessageBroadcastService messageBroadcastService;
+    
+    @Autowired
+    private MessageDispatchExecutor messageDispatchExecutor;
+    
+    @Autowired
+    private UserRouteTable userRouteTable;
+    
+    @Autowired
+    private MessagePersistPublisher messagePersistPublisher;
+    
+    @Autowired
+    private OfflineInbox offlineInbox;
+    
+    @Autowired
+    private BlacklistCache blacklistCache;
+    
+    @Autowired
+    private NodeRegistry nodeRegistry;
+    
+    @Autowired
+    private AdmissionController admissionController;
     
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, TextWebSocketFrame msg) throws Exception {
-        // 解析收到的消息
-        String text = msg.text();
-        Message message = JSON.parseObject(text, Message.class);
+    protected void channelRead0(ChannelHandlerContext ctx, MessageEnvelope envelope) throws Exception {
+        // 编解码器只解析了路由字段，正文保持原始字节，转发时不重新序列化
+        Message message = envelope.header();
+        if (logger.isDebugEnabled()) {
+            logger.debug("收到消息: type={}, sender={}, receiver={}, id={}", message.getMessageType(),
+                    message.getSenderId(), message.getReceiverId(), message.getMessageId());
+        }
         
-        logger.info("收到消息: {}", message);
+        if (ctx.channel().hasAttr(AdmissionController.RETRY_AFTER)) {
+            // 握手被限速的连接，正在关闭
+            return;
+        }
+        boolean login = message.getMessageType() == 0;
+        if (login && !admissionController.tryEnterLogin()) {
+            // 认证和离线补发的名额已满，让客户端稍后重连
+            admissionController.reject(ctx.channel(), admissionController.loginRetryAfter());
+            return;
+        }
         
-        // 处理消息（根据消息类型和接收者进行分发）
-        handleMessage(ctx, message);
+        // 业务处理（黑名单、状态更新、持久化等阻塞调用）交给按发送者分片的串行执行器，
+        // I/O线程不阻塞，同一发送者的消息仍按到达顺序处理
+        String userId = sessionRegistry.getUserId(ctx.channel());
+        String key = userId != null ? userId : message.getSenderId();
+        if (!messageDispatchExecutor.execute(key, () -> handleMessage(ctx, envelope))) {
+            if (login) {
+                admissionController.exitLogin();
+            }
+            logger.warn("消息分发队列已满，拒绝消息: {}", message.getMessageId());
+            message.setStatus(5); // 5-发送失败
+            sendMessage(ctx.channel(), envelope);
+        }
     }
     
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
         logger.info("客户端连接成功: {}", ctx.channel().remoteAddress());
+        nodeRegistry.incrementConnections();
     }
     
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        nodeRegistry.decrementConnections();
         // 客户端断开连接，清理资源
-        String userId = getUserIdByChannel(ctx.channel());
+        String userId = sessionRegistry.unregister(ctx.channel());
         if (userId != null) {
-            USER_CHANNEL_MAP.remove(userId);
             logger.info("用户[{}]断开连接", userId);
-            // 更新用户在线状态
-            updateUserStatus(userId, 2); // 2-离线
+            // 在该用户的分发分片上执行，保证与其认证消息的先后顺序
+            messageDispatchExecutor.execute(userId, () -> {
+                // 所有设备都已下线时才更新为离线状态并删除集群路由
+                if (!sessionRegistry.isOnline(userId)) {
+                    userRouteTable.unbind(userId);
+                    updateUserStatus(userId, 2); // 2-离线
+                }
+            });
         }
         ctx.close();
     }
     
     @Override
     public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
-        // 处理心跳检测
-        if (evt instanceof IdleStateEvent) {
-            IdleStateEvent event = (IdleStateEvent) evt;
-            if (event.state() == IdleState.READER_IDLE) {
-                // 读空闲，断开连接
-                logger.info("心跳超时，断开连接: {}", ctx.channel().remoteAddress());
-                ctx.close();
+        if (evt instanceof WebSocketServerProtocolHandler.HandshakeComplete) {
+            Long retryAfter = ctx.channel().attr(AdmissionController.RETRY_AFTER).get();
+            if (retryAfter != null) {
+                admissionController.reject(ctx.channel(), retryAfter);
             }
         }
     }
@@ -73,82 +138,169 @@ public class WebSocketHandler extends SimpleChannelInboundHandler<TextWebSocketF
     }
     
     // 处理消息
-    private void handleMessage(ChannelHandlerContext ctx, Message message) {
+    private void handleMessage(ChannelHandlerContext ctx, MessageEnvelope envelope) {
+        Message message = envelope.header();
         // 1. 身份验证（如果是首次连接）
         if (message.getMessageType() == 0) { // 0-身份验证消息
-            String userId = message.getSenderId();
-            USER_CHANNEL_MAP.put(userId, ctx.channel());
-            updateUserStatus(userId, 1); // 1-在线
-            
-            // 发送连接成功消息
-            Message response = new Message();
-            response.setMessageType(6); // 6-系统消息
-            response.setContent("连接成功");
-            sendMessage(ctx.channel(), response);
+            boolean replaying = false;
+            try {
+                // 认证需要设备信息，解码完整消息
+                replaying = authenticate(ctx, envelope.message());
+            } finally {
+                // 补发已提交时由补发结束后释放登录名额
+                if (!replaying) {
+                    admissionController.exitLogin();
+                }
+            }
             return;
         }
         
-        // 2. 检查黑名单
-        if (isBlocked(message.getSenderId(), message.getReceiverId())) {
+        // 已认证的连接以会话中的用户为发送者，认证消息仍在排队时以握手票据中的用户为准
+        String sessionUserId = sessionRegistry.getUserId(ctx.channel());
+        ConnectTicket ticket = ctx.channel().attr(HandshakeAuthHandler.TICKET).get();
+        if (sessionUserId != null) {
+            message.setSenderId(sessionUserId);
+        } else if (ticket != null) {
+            message.setSenderId(ticket.getUserId());
+        }
+        
+        // 2. 检查黑名单（仅私聊，群消息的接收者ID是群ID）
+        if (!Boolean.TRUE.equals(message.getIsGroupMessage())
+                && isBlocked(message.getSenderId(), message.getReceiverId())) {
             message.setIsBlocked(true);
             // 发送拦截通知给发送者
-            sendMessage(ctx.channel(), message);
+            sendMessage(ctx.channel(), envelope);
             return;
         }
         
-        // 3. 发送消息
-        if (message.getIsGroupMessage()) {
+        // 3. 在投递前分配消息ID和发送时间，接收方、发送方回执与持久化使用同一ID，
+        //    消息服务据此对重复投递的批次去重
+        if (message.getMessageId() == null) {
+            message.setMessageId(UUID.randomUUID().toString());
+        }
+        if (message.getSendTime() == null) {
+            message.setSendTime(new Date());
+        }
+        
+        // 4. 发送消息
+        if (Boolean.TRUE.equals(message.getIsGroupMessage())) {
             // 群组消息处理
-            sendGroupMessage(message);
+            sendGroupMessage(envelope);
         } else {
             // 私聊消息处理
-            sendPrivateMessage(message);
+            sendPrivateMessage(envelope);
         }
     }
     
-    // 发送私聊消息
-    private void sendPrivateMessage(Message message) {
-        Channel channel = USER_CHANNEL_MAP.get(message.getReceiverId());
-        if (channel != null && channel.isActive()) {
-            sendMessage(channel, message);
+    // 身份验证：注册会话和路由后提交离线补发，返回补发是否已提交
+    private boolean authenticate(ChannelHandlerContext ctx, Message message) {
+        Channel channel = ctx.channel();
+        if (!channel.isActive()) {
+            // 排队期间客户端已放弃
+            return false;
+        }
+        // 握手时已校验票据的连接以票据中的用户为准，不信任消息中的发送者ID
+        ConnectTicket ticket = channel.attr(HandshakeAuthHandler.TICKET).get();
+        String userId = ticket != null ? ticket.getUserId() : message.getSenderId();
+        String deviceId = ticket != null && ticket.getDeviceId() != null
+                ? ticket.getDeviceId() : message.getDeviceId();
+        SessionRegistry.RegisterResult result = sessionRegistry.register(
+                userId, deviceId, message.getDeviceType(), channel);
+        if (result.isRejected()) {
+            // 同类型设备已在线且策略为拒绝新登录
+            Message response = new Message();
+            response.setMessageType(6); // 6-系统消息
+            response.setContent("该账号已在同类型设备登录");
+            channel.writeAndFlush(response)
+                    .addListener(ChannelFutureListener.CLOSE);
+            return false;
+        }
+        for (Channel kicked : result.getKicked()) {
+            kickOffline(kicked);
+        }
+        if (result.isClosed()) {
+            // 连接在注册期间关闭，其channelInactive可能未反查到用户，这里代为清理路由
+            if (!sessionRegistry.isOnline(userId)) {
+                userRouteTable.unbind(userId);
+            }
+            return false;
+        }
+        userRouteTable.bind(userId);
+        // 预加载该用户的黑名单，其他用户给他发消息时在本地判断
+        blacklistCache.load(userId);
+        updateUserStatus(userId, 1); // 1-在线
+        
+        // 发送连接成功消息
+        Message response = new Message();
+        response.setMessageType(6); // 6-系统消息
+        response.setContent("连接成功");
+        sendMessage(channel, response);
+        
+        // 补发离线收件箱中的消息（在补发线程池中限并发执行，不占用分发线程）
+        return admissionController.submitReplay(() -> offlineInbox.replay(userId, channel));
+    }
+    
+    // 发送私聊消息（投递到接收者在本节点上的设备，同时转发到接收者连接的其他节点）
+    private void sendPrivateMessage(MessageEnvelope envelope) {
+        Message message = envelope.header();
+        boolean local = messageBroadcastService.sendToUser(message.getReceiverId(), envelope);
+        boolean forwarded = messageBroadcastService.forwardToOtherNodes(message.getReceiverId(), envelope);
+        if (local || forwarded) {
             message.setStatus(3); // 3-已送达
         } else {
             // 用户不在线，存储到数据库
-            saveOfflineMessage(message);
+            saveOfflineMessage(envelope);
         }
         
-        // 更新发送者的消息状态
+        // 更新发送者的消息状态，同步到发送者的所有设备
         message.setStatus(2); // 2-已发送
-        sendMessage(USER_CHANNEL_MAP.get(message.getSenderId()), message);
+        messageBroadcastService.syncToSender(message.getSenderId(), envelope);
         
         // 异步保存消息
-        saveMessageAsync(message);
+        saveMessageAsync(envelope);
     }
     
-    // 发送群组消息
-    private void sendGroupMessage(Message message) {
-        // TODO: 实现群组消息扩散机制
-        // 1. 获取群组成员列表
-        // 2. 过滤在线成员
-        // 3. 发送消息给在线成员
-        // 4. 存储离线消息
+    // 发送群组消息（编码一次后扇出到所有在线成员）
+    private void sendGroupMessage(MessageEnvelope envelope) {
+        Message message = envelope.header();
+        messageBroadcastService.broadcastGroupMessage(envelope);
+        
+        // 更新发送者的消息状态，同步到发送者的所有设备
+        message.setStatus(2); // 2-已发送
+        messageBroadcastService.syncToSender(message.getSenderId(), envelope);
+        
+        // 异步保存消息
+        saveMessageAsync(envelope);
     }
     
     // 发送消息
     private void sendMessage(Channel channel, Message message) {
         if (channel != null && channel.isActive()) {
-            channel.writeAndFlush(new TextWebSocketFrame(JSON.toJSONString(message)));
+            // 由编解码器按通道协议编码为文本帧或二进制帧
+            channel.writeAndFlush(message);
         }
     }
     
-    // 根据Channel获取用户ID
-    private String getUserIdByChannel(Channel channel) {
-        for (Map.Entry<String, Channel> entry : USER_CHANNEL_MAP.entrySet()) {
-            if (entry.getValue() == channel) {
-                return entry.getKey();
+    // 将收到的消息回送给发送者（正文按原始字节拼接）
+    private void sendMessage(Channel channel, MessageEnvelope envelope) {
+        if (channel != null && channel.isActive()) {
+            EncodedMessage encoded = new EncodedMessage(envelope, channel.alloc());
+            try {
+                encoded.writeTo(channel);
+            } finally {
+                encoded.release();
             }
         }
-        return null;
+    }
+    
+    // 踢下线：通知旧设备后关闭连接
+    private void kickOffline(Channel channel) {
+        logger.info("设备[{}]被踢下线: {}", channel.attr(SessionRegistry.DEVICE_ID).get(), channel.remoteAddress());
+        Message notice = new Message();
+        notice.setMessageType(6); // 6-系统消息
+        notice.setContent("您的账号已在其他设备登录");
+        channel.writeAndFlush(notice)
+                .addListener(ChannelFutureListener.CLOSE);
     }
     
     // 更新用户状态
@@ -157,19 +309,20 @@ public class WebSocketHandler extends SimpleChannelInboundHandler<TextWebSocketF
         // 可以通过OpenFeign调用用户服务
     }
     
-    // 检查是否在黑名单中
+    // 检查发送者是否在接收者的黑名单中（查本地缓存，未命中时从Redis加载）
     private boolean isBlocked(String senderId, String receiverId) {
-        // TODO: 查询黑名单服务
-        return false;
+        return blacklistCache.isBlocked(receiverId, senderId);
     }
     
-    // 保存离线消息
-    private void saveOfflineMessage(Message message) {
-        // TODO: 保存到数据库或Redis
+    // 保存离线消息：写入接收者的Redis离线收件箱，同时标记为离线随异步持久化入库，
+    // 收件箱溢出淘汰的消息由客户端从消息服务分页拉取
+    private void saveOfflineMessage(MessageEnvelope envelope) {
+        envelope.header().setIsOffline(true);
+        offlineInbox.store(envelope.header().getReceiverId(), envelope);
     }
     
-    // 异步保存消息
-    private void saveMessageAsync(Message message) {
-        // TODO: 通过RabbitMQ异步保存消息
+    // 异步保存消息：进入本地批量队列，按批发布到RabbitMQ并等待确认，由消息服务批量入库
+    private void saveMessageAsync(MessageEnvelope envelope) {
+        messagePersistPublisher.submit(envelope);
     }
 }
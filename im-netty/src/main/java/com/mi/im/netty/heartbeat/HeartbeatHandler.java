@@ -0,0 +1,103 @@
+package com.mi.im.netty.heartbeat;
+
+import com.mi.im.netty.session.SessionRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.AttributeKey;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 心跳处理器，位于WebSocket协议处理器之前，能看到包括Ping/Pong在内的所有帧
+ * 任何入站数据都视为连接存活，只记录读取时间；
+ * 空的文本帧或二进制帧是客户端的应用层心跳，以同类型的帧回复Pong，内容为服务端下发的心跳间隔（秒，ASCII数字）
+ */
+@Component
+@ChannelHandler.Sharable
+public class HeartbeatHandler extends ChannelInboundHandlerAdapter {
+
+    private static final AttributeKey<HeartbeatWheel.ChannelHeartbeat> HEARTBEAT = AttributeKey.valueOf("im.heartbeat");
+
+    // 两次回复Pong的最小间隔，更频繁的心跳只记录读取时间
+    @Value("${netty.heartbeat.min-ping-gap:1000}")
+    private long minPingGap;
+
+    @Autowired
+    private HeartbeatWheel heartbeatWheel;
+
+    @Autowired
+    private HeartbeatIntervals intervals;
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        ctx.channel().attr(HEARTBEAT).set(heartbeatWheel.register(ctx.channel()));
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        HeartbeatWheel.ChannelHeartbeat heartbeat = ctx.channel().attr(HEARTBEAT).get();
+        if (heartbeat == null) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        long now = heartbeatWheel.now();
+        if (heartbeat.lastRead != now) {
+            heartbeat.lastRead = now;
+        }
+        if ((msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame)
+                && !((WebSocketFrame) msg).content().isReadable()) {
+            ((WebSocketFrame) msg).release();
+            if (now - heartbeat.lastPong >= minPingGap) {
+                heartbeat.lastPong = now;
+                pong(ctx, heartbeat, msg instanceof BinaryWebSocketFrame, now);
+            }
+            return;
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        HeartbeatWheel.ChannelHeartbeat heartbeat = ctx.channel().attr(HEARTBEAT).get();
+        if (heartbeat != null) {
+            // 由时间轮在下次到期时移除
+            heartbeat.closed = true;
+        }
+        super.channelInactive(ctx);
+    }
+
+    private void pong(ChannelHandlerContext ctx, HeartbeatWheel.ChannelHeartbeat heartbeat, boolean binary, long now) {
+        resolveDevice(ctx.channel(), heartbeat);
+        HeartbeatIntervals.DeviceInterval device = heartbeat.device;
+        long interval = device != null ? intervals.onHeartbeat(device, now) : intervals.defaultInterval();
+        heartbeat.interval = interval;
+        ByteBuf payload = Unpooled.copiedBuffer(Long.toString(interval / 1000), StandardCharsets.US_ASCII);
+        ctx.writeAndFlush(binary ? new BinaryWebSocketFrame(payload) : new TextWebSocketFrame(payload),
+                ctx.voidPromise());
+    }
+
+    // 认证完成后按设备类型确定是否使用自适应间隔
+    private void resolveDevice(Channel channel, HeartbeatWheel.ChannelHeartbeat heartbeat) {
+        if (heartbeat.deviceResolved) {
+            return;
+        }
+        String userId = channel.attr(SessionRegistry.USER_ID).get();
+        if (userId == null) {
+            return;
+        }
+        heartbeat.device = intervals.forDevice(userId, channel.attr(SessionRegistry.DEVICE_ID).get(),
+                channel.attr(SessionRegistry.DEVICE_TYPE).get());
+        heartbeat.deviceResolved = true;
+    }
+}
@@ -0,0 +1,130 @@
+package com.mi.im.netty.heartbeat;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 服务端下发的心跳间隔
+ * PC和Web端使用固定间隔；移动端按设备逐步探测运营商NAT的超时时间：
+ * 当前间隔下连续若干次心跳成功后加大一档，某一档心跳超时断开后退回上一档并暂停探测，
+ * 在不被NAT断开的前提下尽量减少心跳次数（省电、省流量）
+ */
+@Component
+public class HeartbeatIntervals {
+
+    // 默认心跳间隔（毫秒），也是未认证连接和非移动端的间隔
+    @Value("${netty.heartbeat.interval:45000}")
+    private long defaultInterval;
+
+    // 使用自适应心跳的设备类型
+    @Value("${netty.heartbeat.mobile.device-types:phone,pad}")
+    private String mobileTypesConfig;
+
+    @Value("${netty.heartbeat.mobile.min-interval:60000}")
+    private long minInterval;
+
+    @Value("${netty.heartbeat.mobile.max-interval:540000}")
+    private long maxInterval;
+
+    // 每次加大的间隔
+    @Value("${netty.heartbeat.mobile.step:60000}")
+    private long step;
+
+    // 当前间隔下连续成功多少次后加大一档
+    @Value("${netty.heartbeat.mobile.stable-rounds:3}")
+    private int stableRounds;
+
+    // 探测失败后暂停探测的时间，之后网络环境可能已变化，重新向上探测
+    @Value("${netty.heartbeat.mobile.probe-pause:3600000}")
+    private long probePause;
+
+    @Value("${netty.heartbeat.mobile.cache-size:100000}")
+    private int cacheSize;
+
+    private final Set<String> mobileTypes = new HashSet<>();
+    // 用户ID:设备ID -> 设备心跳状态，断线重连后沿用
+    private final Map<String, DeviceInterval> devices = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        for (String type : mobileTypesConfig.split(",")) {
+            if (!type.trim().isEmpty()) {
+                mobileTypes.add(type.trim());
+            }
+        }
+    }
+
+    public long defaultInterval() {
+        return defaultInterval;
+    }
+
+    /**
+     * 设备的心跳状态，非移动端返回null（使用默认间隔）
+     */
+    DeviceInterval forDevice(String userId, String deviceId, String deviceType) {
+        if (userId == null || deviceId == null || deviceType == null || !mobileTypes.contains(deviceType)) {
+            return null;
+        }
+        String key = userId + ":" + deviceId;
+        DeviceInterval device = devices.get(key);
+        if (device == null) {
+            if (devices.size() >= cacheSize) {
+                devices.clear();
+            }
+            device = devices.computeIfAbsent(key, k -> new DeviceInterval(minInterval));
+        }
+        return device;
+    }
+
+    /**
+     * 收到设备的一次心跳
+     * @return 下发给客户端的心跳间隔
+     */
+    long onHeartbeat(DeviceInterval device, long now) {
+        synchronized (device) {
+            if (device.current < maxInterval && now >= device.pausedUntil && ++device.successes >= stableRounds) {
+                device.stable = device.current;
+                device.current = Math.min(maxInterval, device.current + step);
+                device.successes = 0;
+            }
+            return device.current;
+        }
+    }
+
+    /**
+     * 设备的连接因心跳超时断开：正在探测的间隔过长，退回到上一次稳定的间隔并暂停探测；
+     * 稳定间隔本身也超时时（网络环境变化）再减小一档
+     */
+    void onTimeout(DeviceInterval device, long now) {
+        synchronized (device) {
+            device.current = device.current > device.stable
+                    ? device.stable
+                    : Math.max(minInterval, device.current - step);
+            device.stable = device.current;
+            device.successes = 0;
+            device.pausedUntil = now + probePause;
+        }
+    }
+
+    /**
+     * 单个移动设备的心跳间隔状态，由所属对象加锁访问
+     */
+    static final class DeviceInterval {
+        private long current;
+        // 已验证不会被NAT断开的间隔
+        private long stable;
+        private int successes;
+        private long pausedUntil;
+
+        DeviceInterval(long initial) {
+            this.current = initial;
+            this.stable = initial;
+        }
+    }
+}
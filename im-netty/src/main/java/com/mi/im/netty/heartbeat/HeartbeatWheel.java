@@ -0,0 +1,203 @@
+package com.mi.im.netty.heartbeat;
+
+import com.mi.im.netty.codec.MessageFrameCodec;
+import com.mi.im.netty.metrics.NettyMetrics;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 节点共享的心跳时间轮
+ * 所有连接按空闲截止时间放入粗粒度的时间轮槽位，由单独的线程每个tick检查一个槽位。
+ * 读取数据时只更新连接的最后读取时间，不重新调度；到期检查时发现期间有读取，再按新的截止时间放入后面的槽位。
+ * 与每个连接一个IdleStateHandler相比，事件循环上没有定时任务，每个连接每个心跳周期只被检查一次。
+ * 到期未收到任何数据时发送WebSocket Ping探测（浏览器自动回复Pong），再过宽限时间仍无数据则断开
+ */
+@Component
+public class HeartbeatWheel {
+    private static final Logger logger = LoggerFactory.getLogger(HeartbeatWheel.class);
+
+    // 时间轮刻度（毫秒）
+    @Value("${netty.heartbeat.tick:1000}")
+    private long tick;
+
+    // 槽位数，刻度*槽位数 应不小于最大心跳间隔，否则长间隔的连接每转一圈要多检查一次
+    @Value("${netty.heartbeat.wheel-size:1024}")
+    private int wheelSize;
+
+    // 超过心跳间隔后的宽限时间，之后发送Ping探测，再过同样时间无响应则断开
+    @Value("${netty.heartbeat.grace:15000}")
+    private long grace;
+
+    @Autowired
+    private HeartbeatIntervals intervals;
+
+    @Autowired
+    private NettyMetrics metrics;
+
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("im-heartbeat", true));
+
+    private Queue<ChannelHeartbeat>[] buckets;
+    private int mask;
+    private long startTime;
+    // 已处理到的刻度
+    private volatile long currentTick;
+    // 粗粒度的当前时间，每个刻度更新一次，读取路径上用它代替System.currentTimeMillis()
+    private volatile long now;
+    // 仅由时间轮线程使用
+    private final List<ChannelHeartbeat> expired = new ArrayList<>();
+
+    @PostConstruct
+    @SuppressWarnings("unchecked")
+    public void init() {
+        int size = Integer.highestOneBit(Math.max(2, wheelSize) * 2 - 1);
+        buckets = new Queue[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ConcurrentLinkedQueue<>();
+        }
+        mask = size - 1;
+        startTime = System.currentTimeMillis();
+        now = startTime;
+        scheduler.scheduleAtFixedRate(this::advance, tick, tick, TimeUnit.MILLISECONDS);
+        logger.info("心跳时间轮已启动，刻度{}ms，槽位{}，默认间隔{}ms", tick, size, intervals.defaultInterval());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 粗粒度的当前时间（毫秒）
+     */
+    public long now() {
+        return now;
+    }
+
+    /**
+     * 新连接加入时间轮，按默认间隔计算首次截止时间
+     */
+    ChannelHeartbeat register(Channel channel) {
+        ChannelHeartbeat heartbeat = new ChannelHeartbeat(channel, now, intervals.defaultInterval());
+        // 其他线程注册时时间轮可能正在推进，至少放到下下个刻度，避免落入正在处理的槽位
+        schedule(heartbeat, heartbeat.lastRead + heartbeat.interval + grace, currentTick + 2);
+        return heartbeat;
+    }
+
+    private void schedule(ChannelHeartbeat heartbeat, long deadline, long minTick) {
+        long deadlineTick = Math.max(minTick, (deadline - startTime + tick - 1) / tick);
+        heartbeat.deadlineTick = deadlineTick;
+        buckets[(int) (deadlineTick & mask)].offer(heartbeat);
+    }
+
+    private void advance() {
+        try {
+            long time = System.currentTimeMillis();
+            now = time;
+            long target = (time - startTime) / tick;
+            // GC停顿或任务延迟后依次补上错过的刻度
+            while (currentTick < target) {
+                long next = currentTick + 1;
+                currentTick = next;
+                expire(next, time);
+            }
+        } catch (Throwable e) {
+            // 异常会终止周期任务，这里只记录
+            logger.error("心跳时间轮处理异常", e);
+        }
+    }
+
+    private void expire(long tickIndex, long time) {
+        Queue<ChannelHeartbeat> bucket = buckets[(int) (tickIndex & mask)];
+        ChannelHeartbeat heartbeat;
+        while ((heartbeat = bucket.poll()) != null) {
+            expired.add(heartbeat);
+        }
+        try {
+            for (ChannelHeartbeat entry : expired) {
+                if (entry.closed) {
+                    continue;
+                }
+                if (entry.deadlineTick > tickIndex) {
+                    // 截止时间在后面几圈
+                    bucket.offer(entry);
+                    continue;
+                }
+                check(entry, time, tickIndex);
+            }
+        } finally {
+            expired.clear();
+        }
+    }
+
+    private void check(ChannelHeartbeat heartbeat, long time, long tickIndex) {
+        long deadline = heartbeat.lastRead + heartbeat.interval + grace;
+        if (time < deadline) {
+            // 期间收到过数据
+            heartbeat.pingSentAt = 0;
+            schedule(heartbeat, deadline, tickIndex + 1);
+            return;
+        }
+        Channel channel = heartbeat.channel;
+        boolean handshaken = channel.attr(MessageFrameCodec.PROTOCOL).get() != null;
+        if (!handshaken || (heartbeat.pingSentAt > 0 && heartbeat.lastRead < heartbeat.pingSentAt)) {
+            heartbeat.closed = true;
+            metrics.incrementHeartbeatTimeouts();
+            if (heartbeat.device != null) {
+                intervals.onTimeout(heartbeat.device, time);
+            }
+            logger.info("心跳超时，断开连接: {}", channel.remoteAddress());
+            channel.close();
+            return;
+        }
+        // 客户端未按时发送心跳，由服务端Ping探测
+        if (channel.isWritable()) {
+            channel.writeAndFlush(new PingWebSocketFrame(), channel.voidPromise());
+            metrics.incrementHeartbeatPings();
+        }
+        heartbeat.pingSentAt = time;
+        schedule(heartbeat, time + grace, tickIndex + 1);
+    }
+
+    /**
+     * 单个连接的心跳状态
+     */
+    static final class ChannelHeartbeat {
+        final Channel channel;
+        // 最后一次读取数据的时间（粗粒度）
+        volatile long lastRead;
+        // 当前的心跳间隔
+        volatile long interval;
+        volatile boolean closed;
+        // 移动端的自适应间隔状态，认证后第一次心跳时解析
+        volatile HeartbeatIntervals.DeviceInterval device;
+        volatile boolean deviceResolved;
+        // 上次回复Pong的时间，用于忽略过于频繁的心跳
+        long lastPong;
+        // 以下仅由时间轮线程访问（注册时除外）
+        long deadlineTick;
+        long pingSentAt;
+
+        ChannelHeartbeat(Channel channel, long now, long interval) {
+            this.channel = channel;
+            this.lastRead = now;
+            this.interval = interval;
+        }
+    }
+}
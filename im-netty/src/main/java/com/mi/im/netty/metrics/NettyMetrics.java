@@ -0,0 +1,173 @@
+package com.mi.im.netty.metrics;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 本节点运行指标计数器
+ * 定期把快照输出到日志（累计值），由日志采集汇总
+ */
+@Component
+public class NettyMetrics {
+    private static final Logger logger = LoggerFactory.getLogger(NettyMetrics.class);
+
+    // 指标日志的输出间隔（毫秒），0表示不输出
+    @Value("${netty.metrics.log-interval:60000}")
+    private long logInterval;
+
+    private ScheduledExecutorService scheduler;
+    // 上次输出的快照，指标无变化时不重复输出
+    private Map<String, Long> lastLogged;
+
+    // 通道变为不可写的次数
+    private final LongAdder unwritableEvents = new LongAdder();
+    // 因通道不可写而丢弃的非关键消息数（每个设备计一次）
+    private final LongAdder droppedMessages = new LongAdder();
+    // 因有设备通道不可写而转存离线的消息数（每个接收者计一次）
+    private final LongAdder spilledMessages = new LongAdder();
+    // 因慢消费者被断开的连接数
+    private final LongAdder slowConsumerDisconnects = new LongAdder();
+    // 分发队列已满被拒绝的消息数
+    private final LongAdder dispatchRejected = new LongAdder();
+    // 已确认发布到持久化队列的消息数
+    private final LongAdder persistedMessages = new LongAdder();
+    // 持久化队列已满被拒绝的消息数
+    private final LongAdder persistRejected = new LongAdder();
+    // 握手时票据缺失或无效被拒绝的连接数
+    private final LongAdder authRejected = new LongAdder();
+    // 超过握手速率被拒绝的连接数
+    private final LongAdder handshakeRejected = new LongAdder();
+    // 登录名额已满被拒绝的认证数
+    private final LongAdder loginRejected = new LongAdder();
+    // 超出限流速率被延后处理的入站消息数
+    private final LongAdder throttledFrames = new LongAdder();
+    // 因限流暂停连接读取的次数
+    private final LongAdder throttlePauses = new LongAdder();
+    // 客户端未按时心跳，服务端发送Ping探测的次数
+    private final LongAdder heartbeatPings = new LongAdder();
+    // 心跳超时断开的连接数
+    private final LongAdder heartbeatTimeouts = new LongAdder();
+    // 转发到其他节点时因目标队列不存在被退回的信封数
+    private final LongAdder nodeReturned = new LongAdder();
+
+    public void incrementUnwritableEvents() {
+        unwritableEvents.increment();
+    }
+
+    public void incrementDroppedMessages() {
+        droppedMessages.increment();
+    }
+
+    public void incrementSpilledMessages() {
+        spilledMessages.increment();
+    }
+
+    public void incrementSlowConsumerDisconnects() {
+        slowConsumerDisconnects.increment();
+    }
+
+    public void incrementDispatchRejected() {
+        dispatchRejected.increment();
+    }
+
+    public void addPersistedMessages(int count) {
+        persistedMessages.add(count);
+    }
+
+    public void incrementPersistRejected() {
+        persistRejected.increment();
+    }
+
+    public void incrementAuthRejected() {
+        authRejected.increment();
+    }
+
+    public void incrementHandshakeRejected() {
+        handshakeRejected.increment();
+    }
+
+    public void incrementLoginRejected() {
+        loginRejected.increment();
+    }
+
+    public void incrementThrottledFrames() {
+        throttledFrames.increment();
+    }
+
+    public void incrementThrottlePauses() {
+        throttlePauses.increment();
+    }
+
+    public void incrementHeartbeatPings() {
+        heartbeatPings.increment();
+    }
+
+    public void incrementHeartbeatTimeouts() {
+        heartbeatTimeouts.increment();
+    }
+
+    public void incrementNodeReturned() {
+        nodeReturned.increment();
+    }
+
+    @PostConstruct
+    public void init() {
+        if (logInterval <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("im-metrics", true));
+        scheduler.scheduleWithFixedDelay(this::log, logInterval, logInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            // 停机前输出最终值
+            log();
+        }
+    }
+
+    private void log() {
+        Map<String, Long> snapshot = snapshot();
+        if (!snapshot.equals(lastLogged)) {
+            logger.info("节点指标: {}", snapshot);
+            lastLogged = snapshot;
+        }
+    }
+
+    /**
+     * 当前指标快照
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new LinkedHashMap<>();
+        snapshot.put("unwritableEvents", unwritableEvents.sum());
+        snapshot.put("droppedMessages", droppedMessages.sum());
+        snapshot.put("spilledMessages", spilledMessages.sum());
+        snapshot.put("slowConsumerDisconnects", slowConsumerDisconnects.sum());
+        snapshot.put("dispatchRejected", dispatchRejected.sum());
+        snapshot.put("persistedMessages", persistedMessages.sum());
+        snapshot.put("persistRejected", persistRejected.sum());
+        snapshot.put("authRejected", authRejected.sum());
+        snapshot.put("handshakeRejected", handshakeRejected.sum());
+        snapshot.put("loginRejected", loginRejected.sum());
+        snapshot.put("throttledFrames", throttledFrames.sum());
+        snapshot.put("throttlePauses", throttlePauses.sum());
+        snapshot.put("heartbeatPings", heartbeatPings.sum());
+        snapshot.put("heartbeatTimeouts", heartbeatTimeouts.sum());
+        snapshot.put("nodeReturned", nodeReturned.sum());
+        return snapshot;
+    }
+}
@@ -1,49 +1,189 @@
 package com.mi.im.netty.service;
 
 import com.mi.im.common.model.Message;
-import com.mi.im.netty.handler.WebSocketHandler;
+import com.mi.im.netty.cluster.LocalNode;
+import com.mi.im.netty.cluster.NodeMessageBus;
+import com.mi.im.netty.cluster.UserRouteTable;
+import com.mi.im.netty.codec.EncodedMessage;
+import com.mi.im.netty.codec.MessageEnvelope;
+import com.mi.im.netty.handler.SlowConsumerHandler;
+import com.mi.im.netty.metrics.NettyMetrics;
+import com.mi.im.netty.session.SessionRegistry;
+import io.netty.buffer.PooledByteBufAllocator;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
 
 @Service
 public class MessageBroadcastService {
-    
+
+    // 群成员集合，由群组服务维护
+    private static final String GROUP_MEMBERS_KEY = "im:group:members:";
+
     @Autowired
     private RedisTemplate<String, Object> redisTemplate;
-    
+
+    @Autowired
+    private SessionRegistry sessionRegistry;
+
+    @Autowired
+    private SlowConsumerHandler slowConsumerHandler;
+
+    @Autowired
+    private UserRouteTable userRouteTable;
+
+    @Autowired
+    private NodeMessageBus nodeMessageBus;
+
+    @Autowired
+    private LocalNode localNode;
+
+    @Autowired
+    private OfflineInbox offlineInbox;
+
+    @Autowired
+    private NettyMetrics metrics;
+
     /**
      * 广播群组消息
+     * 按成员所在节点分组：本节点成员直接投递，其他节点每个节点只发送一条批量信封，
+     * 由目标节点在本地扇出
+     */
+    public void broadcastGroupMessage(MessageEnvelope envelope) {
+        Message message = envelope.header();
+        String groupId = message.getGroupId() != null ? message.getGroupId() : message.getReceiverId();
+        Set<Object> members = redisTemplate.opsForSet().members(GROUP_MEMBERS_KEY + groupId);
+        if (members == null || members.isEmpty()) {
+            return;
+        }
+
+        List<String> memberIds = new ArrayList<>(members.size());
+        for (Object member : members) {
+            String memberId = String.valueOf(member);
+            // 跳过发送者自己
+            if (!memberId.equals(message.getSenderId())) {
+                memberIds.add(memberId);
+            }
+        }
+
+        Map<String, List<String>> byNode = userRouteTable.groupByNode(memberIds);
+        for (Map.Entry<String, List<String>> entry : byNode.entrySet()) {
+            String nodeId = entry.getKey();
+            if (nodeId == null) {
+                // 不在线的成员，一次流水线写入各自的离线收件箱
+                offlineInbox.storeAll(entry.getValue(), envelope);
+                continue;
+            }
+            if (nodeId.equals(localNode.getNodeId())) {
+                deliverLocal(envelope, entry.getValue());
+            } else {
+                nodeMessageBus.publish(nodeId, envelope, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * 将私聊消息转发到接收者连接的其他节点（路由先查本地缓存）
+     * 用户的多个设备可能分布在多个节点上，每个节点各转发一份，由目标节点投递到其本地设备
+     * @return 是否转发到至少一个节点；接收者不在其他节点上时返回false
      */
-    public void broadcastGroupMessage(Message message) {
-        // 从Redis获取群组成员列表
-        String groupMemberKey = "group:member:" + message.getReceiverId();
-        List<Object> objects = redisTemplate.opsForList().range(groupMemberKey, 0, -1);
-
-        List<String> memberIds = objects.stream()
-                .filter(obj -> obj instanceof String)
-                .map(obj -> (String) obj)
-                .collect(Collectors.toList());
-        
-        if (memberIds != null) {
-            for (String memberId : memberIds) {
-                // 跳过发送者自己
-                if (!memberId.equals(message.getSenderId())) {
-                    sendToUser(memberId, message);
+    public boolean forwardToOtherNodes(String userId, MessageEnvelope envelope) {
+        boolean forwarded = false;
+        for (String nodeId : userRouteTable.lookup(userId)) {
+            if (nodeId.equals(localNode.getNodeId())) {
+                continue;
+            }
+            forwarded |= nodeMessageBus.publish(nodeId, envelope, Collections.singletonList(userId));
+        }
+        return forwarded;
+    }
+
+    /**
+     * 投递给本节点上的一批接收者，消息只编码一次
+     * 已不在本节点上的接收者写入离线收件箱（慢消费者的转存在sendToUser中完成）
+     * @return 已投递或已转存离线的接收者数
+     */
+    public int deliverLocal(MessageEnvelope envelope, List<String> receiverIds) {
+        List<String> undelivered = new ArrayList<>();
+        EncodedMessage encoded = new EncodedMessage(envelope, PooledByteBufAllocator.DEFAULT);
+        try {
+            for (String receiverId : receiverIds) {
+                if (!sendToUser(receiverId, encoded)) {
+                    undelivered.add(receiverId);
                 }
             }
+        } finally {
+            encoded.release();
+        }
+        if (!undelivered.isEmpty() && SlowConsumerHandler.isContentMessage(envelope.header())) {
+            offlineInbox.storeAll(undelivered, envelope);
+        }
+        return receiverIds.size() - undelivered.size();
+    }
+
+    /**
+     * 发送消息给指定用户的所有在线设备
+     * @return 是否已投递到至少一个设备或已转存离线
+     */
+    public boolean sendToUser(String userId, MessageEnvelope envelope) {
+        EncodedMessage encoded = new EncodedMessage(envelope, PooledByteBufAllocator.DEFAULT);
+        try {
+            return sendToUser(userId, encoded);
+        } finally {
+            encoded.release();
+        }
+    }
+
+    /**
+     * 发送已编码的消息给指定用户的所有在线设备
+     * 通道不可写时按慢消费者策略处理：只要有设备因此未收到关键消息，就把消息转存到用户的离线收件箱，
+     * 即使其他设备已收到（离线收件箱按用户存储，重复的消息由客户端按消息ID去重）
+     * @return 是否已投递到至少一个设备或已转存离线；用户在本节点没有在线设备时返回false
+     */
+    public boolean sendToUser(String userId, EncodedMessage encoded) {
+        boolean critical = SlowConsumerHandler.isContentMessage(encoded.getHeader());
+        int[] skipped = new int[1];
+        int delivered = sessionRegistry.forEachChannel(userId, channel -> {
+            if (!slowConsumerHandler.admit(channel, critical)) {
+                skipped[0]++;
+                return false;
+            }
+            encoded.writeTo(channel);
+            return true;
+        });
+        if (critical && skipped[0] > 0) {
+            offlineInbox.store(userId, encoded.getEnvelope());
+            metrics.incrementSpilledMessages();
+            return true;
         }
+        return delivered > 0;
     }
-    
+
     /**
-     * 发送消息给指定用户
+     * 向发送者的所有设备同步消息状态回执（非关键消息，通道不可写时直接丢弃）
      */
-    public boolean sendToUser(String userId, Message message) {
-        return WebSocketHandler.USER_CHANNEL_MAP.containsKey(userId) &&
-               WebSocketHandler.USER_CHANNEL_MAP.get(userId).isActive();
+    public void syncToSender(String userId, MessageEnvelope envelope) {
+        EncodedMessage encoded = new EncodedMessage(envelope, PooledByteBufAllocator.DEFAULT);
+        try {
+            deliver(userId, encoded, false);
+        } finally {
+            encoded.release();
+        }
+    }
+
+    private int deliver(String userId, EncodedMessage encoded, boolean critical) {
+        return sessionRegistry.forEachChannel(userId, channel -> {
+            if (!slowConsumerHandler.admit(channel, critical)) {
+                return false;
+            }
+            encoded.writeTo(channel);
+            return true;
+        });
     }
-}
\ No newline at end of file
+}
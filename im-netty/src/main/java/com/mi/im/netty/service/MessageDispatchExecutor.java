@@ -0,0 +1,103 @@
+package com.mi.im.netty.service;
+
+import com.mi.im.netty.metrics.NettyMetrics;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 业务消息分发执行器
+ * 按key（发送者ID）哈希到固定的单线程分片上执行，同一发送者的消息严格按到达顺序处理，
+ * 不同发送者并行处理；阻塞的远程调用在分片线程上执行，不占用Netty I/O线程
+ */
+@Component
+public class MessageDispatchExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(MessageDispatchExecutor.class);
+
+    // 分片数（每个分片一个线程）
+    @Value("${message.thread-pool-size:10}")
+    private int stripes;
+
+    // 每个分片的任务队列容量，队列满时拒绝新任务而不阻塞I/O线程
+    @Value("${message.queue-size:10000}")
+    private int queueSize;
+
+    @Autowired
+    private NettyMetrics metrics;
+
+    private ThreadPoolExecutor[] executors;
+
+    @PostConstruct
+    public void init() {
+        executors = new ThreadPoolExecutor[Math.max(1, stripes)];
+        for (int i = 0; i < executors.length; i++) {
+            executors[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueSize), new DefaultThreadFactory("im-dispatch-" + i));
+        }
+    }
+
+    /**
+     * 提交任务，同一key的任务按提交顺序串行执行
+     * @return 是否提交成功，分片队列已满时返回false
+     */
+    public boolean execute(String key, Runnable task) {
+        ThreadPoolExecutor executor = executors[stripe(key)];
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    logger.error("消息处理异常", e);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            metrics.incrementDispatchRejected();
+            return false;
+        }
+    }
+
+    /**
+     * 所有分片中排队的任务数
+     */
+    public int pendingTasks() {
+        int pending = 0;
+        for (ThreadPoolExecutor executor : executors) {
+            pending += executor.getQueue().size();
+        }
+        return pending;
+    }
+
+    private int stripe(String key) {
+        if (key == null) {
+            return 0;
+        }
+        int h = key.hashCode();
+        return ((h ^ (h >>> 16)) & 0x7fffffff) % executors.length;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (ThreadPoolExecutor executor : executors) {
+            executor.shutdown();
+        }
+        for (ThreadPoolExecutor executor : executors) {
+            try {
+                executor.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
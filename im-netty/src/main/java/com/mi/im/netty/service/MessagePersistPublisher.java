@@ -0,0 +1,258 @@
+package com.mi.im.netty.service;
+
+import com.alibaba.fastjson.JSON;
+import com.mi.im.common.model.Message;
+import com.mi.im.common.model.OfflineMessage;
+import com.mi.im.netty.codec.MessageEnvelope;
+import com.mi.im.netty.metrics.NettyMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 消息持久化发布器
+ * 消息先进入本地有界队列，由后台线程按批（条数或等待时间达到阈值）打包成一条MQ消息发布，
+ * 并等待publisher confirm，确认失败时整批重试，由消息服务批量入库；
+ * 以mandatory方式发布，没有队列绑定（如消息服务尚未声明队列）被broker退回的批次延迟后重新发布。
+ * 离线收件箱淘汰的消息记录走同一线程，按单独的路由键发布
+ */
+@Component
+public class MessagePersistPublisher {
+    private static final Logger logger = LoggerFactory.getLogger(MessagePersistPublisher.class);
+
+    // 被退回的批次最多保留的数量
+    private static final int RETURNED_CAPACITY = 1000;
+
+    // 被退回的批次重新发布前等待的时间（毫秒）
+    private static final long RETURNED_RETRY_DELAY = 1000;
+
+    @Value("${rabbitmq.exchange.message-persist:im.message}")
+    private String exchange;
+
+    @Value("${rabbitmq.routing-key.message-persist:message.persist}")
+    private String routingKey;
+
+    @Value("${rabbitmq.routing-key.message-offline:message.offline}")
+    private String offlineRoutingKey;
+
+    // 每批最多消息数
+    @Value("${message.persist.batch-size:500}")
+    private int batchSize;
+
+    // 批次未满时最多等待的时间（毫秒）
+    @Value("${message.persist.linger:20}")
+    private long linger;
+
+    @Value("${message.persist.confirm-timeout:5000}")
+    private long confirmTimeout;
+
+    @Value("${message.queue-size:10000}")
+    private int queueSize;
+
+    @Autowired
+    private ConnectionFactory connectionFactory;
+
+    @Autowired
+    private NettyMetrics metrics;
+
+    // 单条消息的JSON
+    private BlockingQueue<String> queue;
+    // 离线消息记录的JSON
+    private BlockingQueue<String> offlineQueue;
+    private Thread publisher;
+    private volatile boolean running;
+    // 独立的模板以mandatory方式发布，退回回调只处理持久化批次
+    private RabbitTemplate rabbitTemplate;
+    // 被退回的批次（没有队列绑定路由键，如消息服务尚未启动），延迟后由发布线程重新发布
+    private final BlockingQueue<ReturnedBatch> returnedBatches = new LinkedBlockingQueue<>(RETURNED_CAPACITY);
+    // 已提交但尚未发布完成的消息数，包括正在等待确认的批次（被退回的批次按一条计）
+    // 入队前增加、发布结束后减少，出队到发布之间不会漏计
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    @PostConstruct
+    public void init() {
+        rabbitTemplate = new RabbitTemplate(connectionFactory);
+        rabbitTemplate.setMandatory(true);
+        rabbitTemplate.setReturnCallback((message, replyCode, replyText, returnedExchange, returnedRoutingKey) ->
+                onReturned(returnedRoutingKey, new String(message.getBody(), StandardCharsets.UTF_8)));
+        queue = new LinkedBlockingQueue<>(queueSize);
+        offlineQueue = new LinkedBlockingQueue<>(queueSize);
+        running = true;
+        publisher = new Thread(this::run, "im-persist-publisher");
+        publisher.setDaemon(true);
+        publisher.start();
+    }
+
+    /**
+     * 提交消息持久化，不阻塞调用线程
+     * JSON协议的消息正文按原始字节拼接，不重新序列化
+     * @return 本地队列已满时返回false
+     */
+    public boolean submit(MessageEnvelope envelope) {
+        outstanding.incrementAndGet();
+        if (queue.offer(envelope.toJson())) {
+            return true;
+        }
+        outstanding.decrementAndGet();
+        metrics.incrementPersistRejected();
+        logger.error("持久化队列已满，消息未能提交: {}", envelope.header().getMessageId());
+        return false;
+    }
+
+    /**
+     * 提交离线消息记录：消息从接收者的离线收件箱中淘汰前调用，由消息服务按接收者入库，供客户端分页拉取
+     */
+    public void submitOffline(String receiverId, Message message) {
+        OfflineMessage record = new OfflineMessage();
+        record.setReceiverId(receiverId);
+        record.setMessageId(message.getMessageId());
+        record.setSendTime(message.getSendTime());
+        outstanding.incrementAndGet();
+        if (!offlineQueue.offer(JSON.toJSONString(record))) {
+            outstanding.decrementAndGet();
+            metrics.incrementPersistRejected();
+            logger.error("持久化队列已满，离线消息记录未能提交: {} -> {}", message.getMessageId(), receiverId);
+        }
+    }
+
+    // 在AMQP连接的回调线程上执行，只入队
+    private void onReturned(String returnedRoutingKey, String payload) {
+        ReturnedBatch batch = new ReturnedBatch(returnedRoutingKey, payload,
+                System.currentTimeMillis() + RETURNED_RETRY_DELAY);
+        outstanding.incrementAndGet();
+        if (returnedBatches.offer(batch)) {
+            logger.warn("持久化批次被退回，没有队列绑定路由键{}，{}ms后重新发布", returnedRoutingKey, RETURNED_RETRY_DELAY);
+        } else {
+            outstanding.decrementAndGet();
+            logger.error("被退回的持久化批次过多，丢弃一个批次: {}", returnedRoutingKey);
+        }
+    }
+
+    private void run() {
+        List<String> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty() || !offlineQueue.isEmpty()) {
+            try {
+                ReturnedBatch returnedBatch = returnedBatches.peek();
+                if (returnedBatch != null && returnedBatch.retryAt <= System.currentTimeMillis()) {
+                    returnedBatches.poll();
+                    publishBatch(returnedBatch.routingKey, returnedBatch.payload, 1);
+                }
+                if (!offlineQueue.isEmpty()) {
+                    offlineQueue.drainTo(batch, batchSize);
+                    publishBatch(offlineRoutingKey, toPayload(batch), batch.size());
+                    batch.clear();
+                }
+                String first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.currentTimeMillis() + linger;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    String next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                if (publishBatch(routingKey, toPayload(batch), batch.size())) {
+                    metrics.addPersistedMessages(batch.size());
+                }
+                batch.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (!returnedBatches.isEmpty()) {
+            logger.error("服务关闭，{}个被退回的持久化批次未能重新发布", returnedBatches.size());
+        }
+    }
+
+    // 确认（或服务关闭放弃）之后才从pending()中扣除，排空时不会在批次确认前认为队列已清空
+    private boolean publishBatch(String routingKey, String payload, int size) throws InterruptedException {
+        try {
+            return publishWithRetry(routingKey, payload);
+        } finally {
+            outstanding.addAndGet(-size);
+        }
+    }
+
+    // 各消息已是JSON，直接拼成JSON数组
+    private static String toPayload(List<String> batch) {
+        return "[" + String.join(",", batch) + "]";
+    }
+
+    // 发布并等待确认，失败时退避重试，直到成功或服务关闭；返回是否已确认
+    // 确认只表示broker已接收，无法路由的批次随后由退回回调重新排队
+    private boolean publishWithRetry(String routingKey, String payload) throws InterruptedException {
+        long backoff = 100;
+        while (true) {
+            try {
+                rabbitTemplate.invoke(operations -> {
+                    operations.convertAndSend(exchange, routingKey, payload);
+                    operations.waitForConfirmsOrDie(confirmTimeout);
+                    return null;
+                });
+                return true;
+            } catch (Exception e) {
+                if (!running) {
+                    logger.error("服务关闭，持久化批次发布失败: {}", routingKey, e);
+                    return false;
+                }
+                logger.warn("持久化批次发布失败，{}ms后重试: {}", backoff, e.getMessage());
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff * 2, 5000);
+            }
+        }
+    }
+
+    /**
+     * 待发布的消息数，包括正在等待确认的批次（被退回的批次按一条计）
+     */
+    public int pending() {
+        return outstanding.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // 停止接收后把队列中剩余的消息发布完
+        running = false;
+        try {
+            publisher.join(confirmTimeout * 2);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class ReturnedBatch {
+        private final String routingKey;
+        private final String payload;
+        private final long retryAt;
+
+        ReturnedBatch(String routingKey, String payload, long retryAt) {
+            this.routingKey = routingKey;
+            this.payload = payload;
+            this.retryAt = retryAt;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.mi.im.netty.service;
+
+import com.alibaba.fastjson.JSON;
+import com.mi.im.common.model.Message;
+import com.mi.im.netty.codec.MessageEnvelope;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 离线收件箱
+ * 每个用户一个Redis有序集合（score为发送时间），超过容量时淘汰最早的消息并打上溢出标记，
+ * 被淘汰的消息按接收者写入离线消息表，客户端按需分页拉取；
+ * 用户认证后按页流水线读取，每页批量写出、一次flush，确认写出后再从收件箱删除
+ */
+@Component
+public class OfflineInbox {
+    private static final Logger logger = LoggerFactory.getLogger(OfflineInbox.class);
+
+    // KEYS[1]=收件箱 KEYS[2]=溢出标记 ARGV: score, 消息, 容量, 过期秒数；返回被淘汰的消息
+    private static final String STORE_LUA =
+            "redis.call('ZADD', KEYS[1], ARGV[1], ARGV[2]) "
+                    + "local n = redis.call('ZCARD', KEYS[1]) "
+                    + "local cap = tonumber(ARGV[3]) "
+                    + "local evicted = {} "
+                    + "if n > cap then "
+                    + "evicted = redis.call('ZRANGE', KEYS[1], 0, n - cap - 1) "
+                    + "redis.call('ZREMRANGEBYRANK', KEYS[1], 0, n - cap - 1) "
+                    + "redis.call('SET', KEYS[2], '1', 'EX', ARGV[4]) end "
+                    + "redis.call('EXPIRE', KEYS[1], ARGV[4]) "
+                    + "return evicted";
+
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> STORE_SCRIPT = new DefaultRedisScript<>(STORE_LUA, List.class);
+
+    private static final byte[] STORE_LUA_BYTES = STORE_LUA.getBytes(StandardCharsets.UTF_8);
+
+    @Value("${im.offline.key-prefix:im:offline:}")
+    private String keyPrefix;
+
+    // 每个用户收件箱的最大消息数
+    @Value("${im.offline.max-size:1000}")
+    private int maxSize;
+
+    // 收件箱过期时间（秒）
+    @Value("${im.offline.ttl:604800}")
+    private long ttl;
+
+    // 补发时每页的消息数
+    @Value("${im.offline.page-size:100}")
+    private int pageSize;
+
+    // 等待每页写出完成的超时时间（毫秒）
+    @Value("${im.offline.write-timeout:5000}")
+    private long writeTimeout;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private MessagePersistPublisher messagePersistPublisher;
+
+    /**
+     * 存入一个用户的离线收件箱
+     */
+    public void store(String userId, MessageEnvelope envelope) {
+        List<?> evicted = stringRedisTemplate.execute(STORE_SCRIPT,
+                Arrays.asList(inboxKey(userId), spilledKey(userId)),
+                score(envelope.header()), envelope.toJson(), String.valueOf(maxSize), String.valueOf(ttl));
+        spill(userId, evicted);
+    }
+
+    /**
+     * 将同一条消息存入多个用户的离线收件箱，一次流水线往返
+     */
+    public void storeAll(Collection<String> userIds, MessageEnvelope envelope) {
+        if (userIds.isEmpty()) {
+            return;
+        }
+        byte[] score = bytes(score(envelope.header()));
+        byte[] payload = bytes(envelope.toJson());
+        byte[] cap = bytes(String.valueOf(maxSize));
+        byte[] expire = bytes(String.valueOf(ttl));
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String userId : userIds) {
+                connection.scriptingCommands().eval(STORE_LUA_BYTES, ReturnType.MULTI, 2,
+                        bytes(inboxKey(userId)), bytes(spilledKey(userId)), score, payload, cap, expire);
+            }
+            return null;
+        });
+        int i = 0;
+        for (String userId : userIds) {
+            spill(userId, (List<?>) results.get(i++));
+        }
+    }
+
+    // 淘汰的消息按接收者写入离线消息表，客户端收到溢出通知后分页拉取，收件箱容量之外的消息不会丢失
+    private void spill(String userId, List<?> evicted) {
+        if (evicted == null) {
+            return;
+        }
+        for (Object payload : evicted) {
+            messagePersistPublisher.submitOffline(userId, JSON.parseObject((String) payload, Message.class));
+        }
+    }
+
+    /**
+     * 向刚认证的连接补发离线消息
+     * 一次流水线读出全部分页，逐页写出并在写出完成后删除；通道失效或写出失败时停止，
+     * 剩余消息留在收件箱中等待下次登录
+     * @return 补发的消息数
+     */
+    public int replay(String userId, Channel channel) {
+        String inboxKey = inboxKey(userId);
+        String spilledKey = spilledKey(userId);
+        int pages = (maxSize + pageSize - 1) / pageSize;
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.stringCommands().get(bytes(spilledKey));
+            for (int i = 0; i < pages; i++) {
+                connection.zSetCommands().zRange(bytes(inboxKey), (long) i * pageSize, (long) (i + 1) * pageSize - 1);
+            }
+            return null;
+        });
+
+        int replayed = 0;
+        Date oldest = null;
+        for (int i = 1; i < results.size(); i++) {
+            @SuppressWarnings("unchecked")
+            Collection<String> page = (Collection<String>) results.get(i);
+            if (page == null || page.isEmpty()) {
+                break;
+            }
+            ChannelFuture last = null;
+            for (String payload : page) {
+                Message message = JSON.parseObject(payload, Message.class);
+                if (oldest == null) {
+                    oldest = message.getSendTime();
+                }
+                last = channel.write(message);
+            }
+            channel.flush();
+            if (!last.awaitUninterruptibly(writeTimeout, TimeUnit.MILLISECONDS) || !last.isSuccess()) {
+                logger.warn("用户[{}]离线消息补发中断，已补发{}条", userId, replayed);
+                return replayed;
+            }
+            stringRedisTemplate.opsForZSet().remove(inboxKey, page.toArray());
+            replayed += page.size();
+        }
+
+        if (results.get(0) != null) {
+            // 更早的消息已从收件箱淘汰，通知客户端从历史消息中分页拉取
+            stringRedisTemplate.delete(spilledKey);
+            Message notice = new Message();
+            notice.setMessageType(6); // 6-系统消息
+            notice.setIsOffline(true);
+            // 分页游标为(sendTime, messageId)，客户端从该位置向前拉取
+            // GET /api/message/offline?beforeTime=&beforeMessageId=；
+            // 收件箱中剩余（已补发）的消息不会写入离线消息表，与最早一条补发消息同一时间的溢出消息都要拉取，
+            // 因此通知不带messageId，首页包含该时间的全部溢出消息
+            notice.setSendTime(oldest);
+            notice.setContent("更早的离线消息请分页拉取");
+            channel.writeAndFlush(notice);
+        }
+        if (replayed > 0) {
+            logger.info("用户[{}]补发离线消息{}条", userId, replayed);
+        }
+        return replayed;
+    }
+
+    private String score(Message message) {
+        Date sendTime = message.getSendTime();
+        return String.valueOf(sendTime != null ? sendTime.getTime() : System.currentTimeMillis());
+    }
+
+    // 收件箱与溢出标记使用相同的hash tag，集群模式下落在同一个slot，可在一个脚本中操作
+    private String inboxKey(String userId) {
+        return keyPrefix + "{" + userId + "}:inbox";
+    }
+
+    private String spilledKey(String userId) {
+        return keyPrefix + "{" + userId + "}:spilled";
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,67 @@
+package com.mi.im.netty.session;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 本节点已接受的全部连接，包括握手中和未认证的连接（会话注册表只有已认证的会话）
+ * 连接关闭时由ChannelGroup自动移除；另外单独跟踪当前不可写的连接，
+ * 统计待发送字节数时只需遍历这一小部分
+ */
+@Component
+public class ConnectionTracker {
+
+    private final ChannelGroup connections = new DefaultChannelGroup("im-connections", GlobalEventExecutor.INSTANCE);
+    private final ChannelGroup unwritable = new DefaultChannelGroup("im-unwritable", GlobalEventExecutor.INSTANCE);
+
+    /**
+     * 新接受的连接，在初始化pipeline时调用
+     */
+    public void add(Channel channel) {
+        connections.add(channel);
+    }
+
+    /**
+     * 连接的可写状态变化
+     */
+    public void writabilityChanged(Channel channel) {
+        if (channel.isWritable()) {
+            unwritable.remove(channel);
+        } else {
+            unwritable.add(channel);
+        }
+    }
+
+    /**
+     * 当前全部连接的快照
+     */
+    public List<Channel> snapshot() {
+        return new ArrayList<>(connections);
+    }
+
+    public int size() {
+        return connections.size();
+    }
+
+    /**
+     * 不可写连接的待发送字节数
+     * 可写的连接待发送数据低于高水位且会很快写出，积压都在不可写的连接上
+     */
+    public long pendingOutboundBytes() {
+        long pending = 0;
+        for (Channel channel : unwritable) {
+            ChannelOutboundBuffer buffer = channel.unsafe().outboundBuffer();
+            if (buffer != null) {
+                pending += buffer.totalPendingWriteBytes();
+            }
+        }
+        return pending;
+    }
+}
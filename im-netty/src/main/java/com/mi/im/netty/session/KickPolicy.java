@@ -0,0 +1,13 @@
+package com.mi.im.netty.session;
+
+/**
+ * 同类型设备重复登录时的踢下线策略
+ */
+public enum KickPolicy {
+    // 新登录踢掉同类型的旧设备
+    KICK_OLD,
+    // 已有同类型设备在线时拒绝新登录
+    REJECT_NEW,
+    // 同类型设备可以同时在线
+    ALLOW
+}
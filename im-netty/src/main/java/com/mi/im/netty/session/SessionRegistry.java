@@ -0,0 +1,308 @@
+package com.mi.im.netty.session;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * 会话注册表
+ * 用户ID保存在Channel属性中，断开连接时无需遍历即可反查用户；
+ * 用户到Channel的索引按用户ID哈希分片，降低高并发上下线时的竞争。
+ * 同一用户可以多设备同时在线：单设备时索引值直接是Channel，
+ * 多设备时才升级为Channel数组（写时复制），避免为绝大多数单设备用户额外创建集合对象
+ */
+@Component
+public class SessionRegistry {
+
+    // Channel上绑定的用户ID
+    public static final AttributeKey<String> USER_ID = AttributeKey.valueOf("im.userId");
+    // Channel上绑定的设备ID
+    public static final AttributeKey<String> DEVICE_ID = AttributeKey.valueOf("im.deviceId");
+    // Channel上绑定的设备类型
+    public static final AttributeKey<String> DEVICE_TYPE = AttributeKey.valueOf("im.deviceType");
+
+    public static final String DEFAULT_DEVICE_TYPE = "default";
+
+    private static final Channel[] EMPTY = new Channel[0];
+
+    @Value("${netty.session.shards:16}")
+    private int shardCount;
+
+    // 每个用户最多同时在线的设备数，超出时踢掉最早登录的设备
+    @Value("${netty.session.max-devices:5}")
+    private int maxDevices;
+
+    // 按设备类型配置的踢下线策略，格式: phone:KICK_OLD,pc:KICK_OLD,web:ALLOW
+    @Value("${netty.session.kick-policy:phone:KICK_OLD,pad:KICK_OLD,pc:KICK_OLD,web:ALLOW}")
+    private String kickPolicyConfig;
+
+    @Value("${netty.session.default-kick-policy:KICK_OLD}")
+    private KickPolicy defaultKickPolicy;
+
+    // 值为Channel（单设备）或Channel[]（多设备）
+    private Map<String, Object>[] shards;
+    private int shardMask;
+    private final Map<String, KickPolicy> kickPolicies = new HashMap<>();
+
+    @PostConstruct
+    @SuppressWarnings("unchecked")
+    public void init() {
+        // 分片数向上取整为2的幂，便于用位运算定位分片
+        int size = 1;
+        while (size < Math.max(1, shardCount)) {
+            size <<= 1;
+        }
+        shards = new Map[size];
+        for (int i = 0; i < size; i++) {
+            shards[i] = new ConcurrentHashMap<>();
+        }
+        shardMask = size - 1;
+
+        for (String item : kickPolicyConfig.split(",")) {
+            String[] pair = item.trim().split(":");
+            if (pair.length == 2) {
+                kickPolicies.put(pair[0].trim(), KickPolicy.valueOf(pair[1].trim()));
+            }
+        }
+    }
+
+    /**
+     * 注册用户设备会话
+     * 同一设备ID重复登录时总是替换旧连接，同类型设备按踢下线策略处理。
+     * 在分发线程上执行，连接可能同时在事件循环上关闭：先设置Channel属性再写入索引，
+     * 之后关闭的连接在channelInactive中一定能反查到用户；写入后再检查一次连接状态，
+     * 写入前已关闭的连接由这里移出索引
+     *
+     * @return 注册结果，包含需要踢下线的旧Channel
+     */
+    public RegisterResult register(String userId, String deviceId, String deviceType, Channel channel) {
+        String type = deviceType == null || deviceType.isEmpty() ? DEFAULT_DEVICE_TYPE : deviceType;
+        String device = deviceId == null || deviceId.isEmpty() ? type : deviceId;
+        KickPolicy policy = kickPolicies.getOrDefault(type, defaultKickPolicy);
+
+        channel.attr(DEVICE_TYPE).set(type);
+        channel.attr(DEVICE_ID).set(device);
+        channel.attr(USER_ID).set(userId);
+
+        RegisterResult result = new RegisterResult();
+        shard(userId).compute(userId, (key, current) -> {
+            Channel[] channels = toArray(current);
+            List<Channel> kept = new ArrayList<>(channels.length + 1);
+            for (Channel old : channels) {
+                if (old == channel || !old.isActive()) {
+                    continue;
+                }
+                boolean sameDevice = device.equals(old.attr(DEVICE_ID).get());
+                boolean sameType = type.equals(old.attr(DEVICE_TYPE).get());
+                if (sameDevice || (sameType && policy == KickPolicy.KICK_OLD)) {
+                    result.addKicked(old);
+                } else if (sameType && policy == KickPolicy.REJECT_NEW) {
+                    result.rejected = true;
+                    kept.add(old);
+                } else {
+                    kept.add(old);
+                }
+            }
+            if (result.rejected) {
+                // 拒绝新登录时保留原有会话，被标记踢下线的也不再处理
+                result.kicked = Collections.emptyList();
+                return current;
+            }
+            // 超出设备上限时踢掉最早登录的设备
+            while (kept.size() >= maxDevices && !kept.isEmpty()) {
+                result.addKicked(kept.remove(0));
+            }
+            kept.add(channel);
+            return kept.size() == 1 ? kept.get(0) : kept.toArray(EMPTY);
+        });
+
+        if (result.rejected) {
+            channel.attr(USER_ID).set(null);
+            channel.attr(DEVICE_ID).set(null);
+            channel.attr(DEVICE_TYPE).set(null);
+            return result;
+        }
+        for (Channel old : result.kicked) {
+            // 被踢的Channel关闭时不应再影响当前索引
+            old.attr(USER_ID).set(null);
+        }
+        if (!channel.isActive()) {
+            // 写入索引前连接已关闭，channelInactive可能没有看到用户ID
+            channel.attr(USER_ID).set(null);
+            shard(userId).computeIfPresent(userId, (key, current) -> remove(current, channel));
+            result.closed = true;
+        }
+        return result;
+    }
+
+    /**
+     * 注销Channel对应的会话，返回其用户ID（未认证或已被踢下线的连接返回null）
+     */
+    public String unregister(Channel channel) {
+        String userId = channel.attr(USER_ID).getAndSet(null);
+        if (userId != null) {
+            shard(userId).computeIfPresent(userId, (key, current) -> remove(current, channel));
+        }
+        return userId;
+    }
+
+    /**
+     * 向用户所有在线设备执行操作，返回操作成功（返回true）的设备数；单设备时不产生任何分配
+     */
+    public int forEachChannel(String userId, Predicate<Channel> action) {
+        if (userId == null) {
+            return 0;
+        }
+        Object value = shard(userId).get(userId);
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Channel) {
+            Channel channel = (Channel) value;
+            return channel.isActive() && action.test(channel) ? 1 : 0;
+        }
+        int count = 0;
+        for (Channel channel : (Channel[]) value) {
+            if (channel.isActive() && action.test(channel)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 获取用户所有设备的Channel
+     */
+    public Channel[] getChannels(String userId) {
+        return userId == null ? EMPTY : toArray(shard(userId).get(userId));
+    }
+
+    /**
+     * 根据Channel获取用户ID，O(1)
+     */
+    public String getUserId(Channel channel) {
+        return channel.attr(USER_ID).get();
+    }
+
+    /**
+     * 用户在本节点是否有设备在线
+     */
+    public boolean isOnline(String userId) {
+        return forEachChannel(userId, channel -> true) > 0;
+    }
+
+    /**
+     * 遍历本节点所有设备会话
+     */
+    public void forEach(BiConsumer<String, Channel> action) {
+        for (Map<String, Object> shard : shards) {
+            shard.forEach((userId, value) -> {
+                for (Channel channel : toArray(value)) {
+                    action.accept(userId, channel);
+                }
+            });
+        }
+    }
+
+    /**
+     * 本节点在线用户数
+     */
+    public int size() {
+        int size = 0;
+        for (Map<String, Object> shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    private Map<String, Object> shard(String userId) {
+        int h = userId.hashCode();
+        return shards[(h ^ (h >>> 16)) & shardMask];
+    }
+
+    private static Channel[] toArray(Object value) {
+        if (value == null) {
+            return EMPTY;
+        }
+        if (value instanceof Channel) {
+            return new Channel[]{(Channel) value};
+        }
+        return (Channel[]) value;
+    }
+
+    // 从索引值中移除Channel，返回null表示该用户已无在线设备
+    private static Object remove(Object current, Channel channel) {
+        if (current == channel) {
+            return null;
+        }
+        if (!(current instanceof Channel[])) {
+            return current;
+        }
+        Channel[] channels = (Channel[]) current;
+        int index = -1;
+        for (int i = 0; i < channels.length; i++) {
+            if (channels[i] == channel) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            return current;
+        }
+        if (channels.length == 2) {
+            return channels[1 - index];
+        }
+        Channel[] remaining = new Channel[channels.length - 1];
+        System.arraycopy(channels, 0, remaining, 0, index);
+        System.arraycopy(channels, index + 1, remaining, index, channels.length - index - 1);
+        return remaining;
+    }
+
+    /**
+     * 设备注册结果
+     */
+    public static class RegisterResult {
+        private boolean rejected;
+        private boolean closed;
+        private List<Channel> kicked = Collections.emptyList();
+
+        private void addKicked(Channel channel) {
+            if (kicked.isEmpty()) {
+                kicked = new ArrayList<>(1);
+            }
+            kicked.add(channel);
+        }
+
+        /**
+         * 新登录是否因策略被拒绝
+         */
+        public boolean isRejected() {
+            return rejected;
+        }
+
+        /**
+         * 注册期间连接已关闭，会话已移出索引，不应再绑定路由
+         */
+        public boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * 需要踢下线的旧设备
+         */
+        public List<Channel> getKicked() {
+            return kicked;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.mi.im.netty.codec;
+
+import com.mi.im.common.model.Message;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 群消息扇出时每个接收者的内存分配对比
+ * 优化前：每个接收者各自JSON序列化一次；优化后：编码一次，接收者共享retainedDuplicate
+ * 实测（JDK 8）：逐个编码约1140字节/接收者，共享编码32字节/接收者（只有帧对象和duplicate）
+ */
+class EncodedMessageAllocationTest {
+
+    private static final int RECIPIENTS = 2000;
+    private static final int ROUNDS = 20;
+    // 共享编码时每个接收者只分配帧对象和retainedDuplicate，不随消息大小增长
+    private static final long SHARED_MAX_BYTES = 64;
+    // 逐个编码的分配量至少是共享编码的倍数
+    private static final long MIN_RATIO = 10;
+
+    @Test
+    void sharedEncodingAllocatesLessPerRecipient() {
+        EmbeddedChannel[] channels = new EmbeddedChannel[RECIPIENTS];
+        for (int i = 0; i < RECIPIENTS; i++) {
+            channels[i] = new EmbeddedChannel(MessageFrameCodec.JSON_CODEC);
+            channels[i].attr(MessageFrameCodec.PROTOCOL).set(MessageFrameCodec.JSON_CODEC);
+        }
+        Message message = groupMessage();
+
+        // 预热
+        for (int i = 0; i < ROUNDS; i++) {
+            encodePerRecipient(channels, message);
+            encodeOnce(channels, message);
+        }
+
+        long before = measure(() -> encodePerRecipient(channels, message));
+        long after = measure(() -> encodeOnce(channels, message));
+
+        for (EmbeddedChannel channel : channels) {
+            channel.finishAndReleaseAll();
+        }
+        assertTrue(after <= SHARED_MAX_BYTES, "共享编码每接收者分配" + after + "字节");
+        assertTrue(before >= after * MIN_RATIO, "逐个编码" + before + "字节，共享编码" + after + "字节");
+    }
+
+    @Test
+    void sharedBufferIsReleasedAfterAllWrites() {
+        EmbeddedChannel json = new EmbeddedChannel();
+        EmbeddedChannel binary = new EmbeddedChannel();
+        binary.attr(MessageFrameCodec.PROTOCOL).set(MessageFrameCodec.BINARY_CODEC);
+
+        EncodedMessage encoded = new EncodedMessage(groupMessage(), PooledByteBufAllocator.DEFAULT);
+        encoded.writeTo(json);
+        encoded.writeTo(binary);
+        encoded.writeTo(binary);
+        encoded.release();
+
+        // 释放共享编码后，已写出的帧仍然可读，各自释放后引用归零
+        BinaryWebSocketFrame first = binary.readOutbound();
+        BinaryWebSocketFrame second = binary.readOutbound();
+        assertEquals(groupMessage().getContent(), BinaryMessageCodec.decode(first.content()).getContent());
+        assertTrue(first.release());
+        assertEquals(groupMessage().getContent(), BinaryMessageCodec.decode(second.content()).getContent());
+        assertTrue(second.release());
+
+        TextWebSocketFrame text = json.readOutbound();
+        assertTrue(text.text().contains(groupMessage().getContent()));
+        assertTrue(text.release());
+    }
+
+    private static void encodePerRecipient(EmbeddedChannel[] channels, Message message) {
+        for (EmbeddedChannel channel : channels) {
+            channel.writeAndFlush(message);
+            ReferenceCountUtil.release(channel.readOutbound());
+        }
+    }
+
+    private static void encodeOnce(EmbeddedChannel[] channels, Message message) {
+        EncodedMessage encoded = new EncodedMessage(message, PooledByteBufAllocator.DEFAULT);
+        try {
+            for (EmbeddedChannel channel : channels) {
+                encoded.writeTo(channel);
+                ReferenceCountUtil.release(channel.readOutbound());
+            }
+        } finally {
+            encoded.release();
+        }
+    }
+
+    // 返回每个接收者平均分配的字节数
+    private static long measure(Runnable fanout) {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long start = bean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ROUNDS; i++) {
+            fanout.run();
+        }
+        return (bean.getThreadAllocatedBytes(threadId) - start) / ((long) ROUNDS * RECIPIENTS);
+    }
+
+    private static Message groupMessage() {
+        Message message = new Message();
+        message.setMessageId("9f1c2e7a-5b3d-4c8e-a1f0-6d2b9e4c7a13");
+        message.setSenderId("100001");
+        message.setReceiverId("200002");
+        message.setGroupId("200002");
+        message.setMessageType(1);
+        message.setContent("今晚八点开会，请大家提前准备好本周的工作总结和下周计划，会议预计持续一个小时。");
+        message.setStatus(2);
+        message.setSendTime(new Date());
+        message.setIsGroupMessage(true);
+        return message;
+    }
+}
@@ -0,0 +1,77 @@
+package com.mi.im.netty.codec;
+
+import com.alibaba.fastjson.JSON;
+import com.mi.im.common.model.Message;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 只解析路由字段的信封：header修改后拼接原始正文，结果与完整解码再编码一致
+ */
+class MessageEnvelopeTest {
+
+    @Test
+    void binarySpliceEqualsFullEncode() {
+        ByteBuf frame = Unpooled.buffer();
+        BinaryMessageCodec.encode(clientMessage(), frame);
+        MessageEnvelope envelope = MessageEnvelope.parseBinary(frame);
+        serverUpdate(envelope.header());
+
+        ByteBuf spliced = Unpooled.buffer();
+        envelope.encodeBinary(spliced);
+        ByteBuf full = Unpooled.buffer();
+        BinaryMessageCodec.encode(envelope.message(), full);
+        assertArrayEquals(ByteBufUtil.getBytes(full), ByteBufUtil.getBytes(spliced));
+        assertEquals("你好，世界", envelope.message().getContent());
+    }
+
+    @Test
+    void jsonSpliceEqualsFullEncode() {
+        byte[] frame = JSON.toJSONBytes(clientMessage());
+        MessageEnvelope envelope = MessageEnvelope.parseJson(frame);
+        assertEquals("u1", envelope.header().getSenderId());
+        serverUpdate(envelope.header());
+
+        Message spliced = JSON.parseObject(envelope.toJson(), Message.class);
+        assertEquals(JSON.toJSONString(envelope.message()), JSON.toJSONString(spliced));
+        assertEquals("msg-1", spliced.getMessageId());
+        assertEquals(Integer.valueOf(2), spliced.getStatus());
+    }
+
+    @Test
+    void jsonBodyMembersAreCopiedVerbatim() {
+        String frame = "{ \"content\" : \"a,\\\"b}\", \"messageType\":1, \"extra\":{\"k\":[1,{\"x\":\"]\"}]},"
+                + "\"senderId\":\"u1\" }";
+        MessageEnvelope envelope = MessageEnvelope.parseJson(frame.getBytes(StandardCharsets.UTF_8));
+        assertEquals(Integer.valueOf(1), envelope.header().getMessageType());
+
+        String json = envelope.toJson();
+        assertEquals("a,\"b}", JSON.parseObject(json).getString("content"));
+        assertEquals("]", JSON.parseObject(json).getJSONObject("extra").getJSONArray("k")
+                .getJSONObject(1).getString("x"));
+    }
+
+    private static Message clientMessage() {
+        Message message = new Message();
+        message.setSenderId("u1");
+        message.setReceiverId("u2");
+        message.setContent("你好，世界");
+        message.setMessageType(1);
+        message.setIsGroupMessage(false);
+        return message;
+    }
+
+    private static void serverUpdate(Message header) {
+        header.setMessageId("msg-1");
+        header.setSendTime(new Date(1700000000000L));
+        header.setStatus(2);
+    }
+}
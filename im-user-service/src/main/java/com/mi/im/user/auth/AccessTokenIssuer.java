@@ -0,0 +1,56 @@
+package com.mi.im.user.auth;
+
+import com.mi.im.common.ticket.ConnectTicket;
+import com.mi.im.common.ticket.ConnectTicketCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 登录令牌签发
+ * 格式与连接票据相同（{@link ConnectTicketCodec}，node为空），使用独立的密钥 im.auth.secret，
+ * 由网关校验后访问连接调度和消息接口
+ */
+@Component
+public class AccessTokenIssuer {
+
+    // 当前签名密钥ID
+    @Value("${im.auth.key-id:a1}")
+    private String keyId;
+
+    // 签名密钥，与网关配置一致
+    @Value("${im.auth.secret:}")
+    private String secret;
+
+    // 令牌有效期（毫秒）
+    @Value("${im.auth.token-ttl:7200000}")
+    private long tokenTtl;
+
+    private byte[] secretBytes;
+
+    @PostConstruct
+    public void init() {
+        if (secret.isEmpty()) {
+            throw new IllegalStateException("未配置登录令牌密钥 im.auth.secret");
+        }
+        secretBytes = secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 为用户签发登录令牌
+     */
+    public ConnectTicket issue(String userId, String deviceId) {
+        ConnectTicket token = new ConnectTicket();
+        token.setUserId(userId);
+        token.setDeviceId(deviceId);
+        token.setExpireAt(System.currentTimeMillis() + tokenTtl);
+        token.setKeyId(keyId);
+        return token;
+    }
+
+    public String sign(ConnectTicket token) {
+        return ConnectTicketCodec.sign(token, secretBytes);
+    }
+}
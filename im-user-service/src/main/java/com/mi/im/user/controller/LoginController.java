@@ -0,0 +1,58 @@
+package com.mi.im.user.controller;
+
+import com.mi.im.common.model.User;
+import com.mi.im.common.ticket.ConnectTicket;
+import com.mi.im.user.auth.AccessTokenIssuer;
+import com.mi.im.user.mapper.UserMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 登录接口，经网关 /api/user/login 访问，不需要令牌
+ * 返回的登录令牌放在请求头 Authorization: Bearer 中访问连接调度和消息接口
+ */
+@RestController
+@RequestMapping("/user")
+public class LoginController {
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    private AccessTokenIssuer tokenIssuer;
+
+    /**
+     * 手机号密码登录，签发登录令牌
+     */
+    @PostMapping("/login")
+    public ResponseEntity<Map<String, Object>> login(
+            @RequestParam("phone") String phone,
+            @RequestParam("password") String password,
+            @RequestParam(value = "deviceId", required = false) String deviceId) {
+        User user = userMapper.selectCredentialByPhone(phone);
+        // 用户不存在和密码错误返回相同的结果，不暴露手机号是否已注册
+        if (user == null || user.getPassword() == null || !MessageDigest.isEqual(
+                user.getPassword().getBytes(StandardCharsets.UTF_8), password.getBytes(StandardCharsets.UTF_8))) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("message", "手机号或密码错误");
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(error);
+        }
+        ConnectTicket token = tokenIssuer.issue(user.getUserId(), deviceId);
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("userId", user.getUserId());
+        result.put("token", tokenIssuer.sign(token));
+        result.put("expireAt", token.getExpireAt());
+        return ResponseEntity.ok(result);
+    }
+}
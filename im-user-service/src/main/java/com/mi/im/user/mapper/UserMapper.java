@@ -10,6 +10,8 @@ import org.springframework.data.elasticsearch.repository.ElasticsearchRepository
 public interface UserMapper {
     UserDTO selectById(Long userId);
     UserDTO selectByPhone(String phone);
+    // 登录校验用，只查询用户ID和密码
+    User selectCredentialByPhone(String phone);
     int updateStatus(@Param("userId") Long userId, @Param("status") Integer status);
     int updateServerAddress(@Param("userId") String userId, @Param("serverAddress") String serverAddress);
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package com.mi.im.user.service.impl;
 
 import com.mi.im.api.user.UserService;
+import com.mi.im.common.constant.RedisKeyConstants;
 import com.mi.im.common.model.User;
 import com.mi.im.common.model.dto.UserDTO;
 import com.mi.im.user.mapper.UserMapper;
@@ -92,16 +93,18 @@ public class UserServiceImpl implements UserService {
     @Override
     public boolean checkBlacklist(Long userId, Long blackUserId) {
         // 从Redis或数据库查询黑名单
-        String blacklistKey = "blacklist:" + userId;
+        String blacklistKey = RedisKeyConstants.BLACKLIST_KEY_PREFIX + userId;
         return redisTemplate.opsForSet().isMember(blacklistKey, blackUserId);
     }
 
     @Override
     public boolean addBlacklist(Long userId, Long blackUserId) {
-        String blacklistKey = "blacklist:" + userId;
+        String blacklistKey = RedisKeyConstants.BLACKLIST_KEY_PREFIX + userId;
         redisTemplate.opsForSet().add(blacklistKey, blackUserId);
         // 设置永久过期时间
         redisTemplate.persist(blacklistKey);
+        // 通知各Netty节点使本地黑名单缓存失效
+        redisTemplate.convertAndSend(RedisKeyConstants.BLACKLIST_CHANGED_CHANNEL, userId);
         return true;
     }
 }